@@ -0,0 +1,121 @@
+package dakota.poonani;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * A command that can be sent to Poonani, in the format :token: arguments
+ * Commands are registered in a CommandRegistry along with metadata describing where and by whom they may be used.
+ */
+public class Command
+{
+	/*
+	 * Fields
+	 */
+	
+	/**
+	 * Parses the arguments following a command's token
+	 */
+	public interface ArgumentParser {
+		/**
+		 * Parses the arguments following a command's token
+		 * @param arguments Everything after the token, with surrounding whitespace removed
+		 * @return The parsed arguments
+		 * @throws IllegalArgumentException If the arguments are invalid. The exception message is sent to the user
+		 */
+		String parse(String arguments);
+	}
+	
+	/**
+	 * The work done by a command once its checks have passed
+	 */
+	public interface Action {
+		/**
+		 * Executes the command
+		 * @param handler The handler of the guild the command was sent in
+		 * @param context The message the command was sent in, and its parsed arguments
+		 * @return The completion of the command and its replies
+		 */
+		Mono<Void> execute(GuildHandler handler, CommandContext context);
+	}
+	
+	/**
+	 * Accepts any arguments, including none
+	 */
+	public static final ArgumentParser ANY_ARGUMENTS = arguments -> arguments;
+	
+	private final boolean guildOnly;
+	private final boolean adminOnly;
+	private final ArgumentParser parser;
+	private final Action action;
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Creates a command
+	 * @param guildOnly Whether the command must be used inside a guild
+	 * @param adminOnly Whether the command may only be used by members with the admin role
+	 * @param parser The parser for the command's arguments
+	 * @param action The work done by the command
+	 */
+	public Command(boolean guildOnly, boolean adminOnly, ArgumentParser parser, Action action)
+	{
+		this.guildOnly = guildOnly;
+		this.adminOnly = adminOnly;
+		this.parser = parser;
+		this.action = action;
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets whether the command must be used inside a guild
+	 * @return Whether the command must be used inside a guild
+	 */
+	public boolean isGuildOnly() {
+		return guildOnly;
+	}
+	
+	/**
+	 * Gets whether the command may only be used by members with the admin role
+	 * @return Whether the command may only be used by members with the admin role
+	 */
+	public boolean isAdminOnly() {
+		return adminOnly;
+	}
+	
+	/**
+	 * Gets the parser for the command's arguments
+	 * @return The parser for the command's arguments
+	 */
+	public ArgumentParser getParser() {
+		return parser;
+	}
+	
+	/**
+	 * Gets the work done by the command
+	 * @return The work done by the command
+	 */
+	public Action getAction() {
+		return action;
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Creates a parser that rejects empty arguments
+	 * @param usage The message sent to the user when no arguments are provided
+	 * @return A parser that rejects empty arguments
+	 */
+	public static ArgumentParser requiredArguments(String usage) {
+		return arguments -> {
+			if(arguments.isEmpty()) throw new IllegalArgumentException(usage);
+			return arguments;
+		};
+	}
+}
@@ -0,0 +1,86 @@
+package dakota.poonani;
+
+import discord4j.core.event.domain.message.MessageCreateEvent;
+import discord4j.core.object.entity.Member;
+import discord4j.core.object.entity.MessageChannel;
+
+/**
+ * The message a Command was sent in, along with its parsed arguments
+ */
+public class CommandContext
+{
+	/*
+	 * Fields
+	 */
+	
+	private final MessageCreateEvent event;
+	private final String message;
+	private final String arguments;
+	private final Member sender;
+	private final MessageChannel channel;
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Creates a command context
+	 * @param event The event for the message
+	 * @param message The content of the message
+	 * @param arguments The parsed arguments of the command
+	 * @param sender The sender of the message, null in DMs
+	 * @param channel The channel the message was sent in
+	 */
+	public CommandContext(MessageCreateEvent event, String message, String arguments, Member sender, MessageChannel channel)
+	{
+		this.event = event;
+		this.message = message;
+		this.arguments = arguments;
+		this.sender = sender;
+		this.channel = channel;
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets the event for the message
+	 * @return The event for the message
+	 */
+	public MessageCreateEvent getEvent() {
+		return event;
+	}
+	
+	/**
+	 * Gets the content of the message, including the command token
+	 * @return The content of the message
+	 */
+	public String getMessage() {
+		return message;
+	}
+	
+	/**
+	 * Gets the parsed arguments of the command
+	 * @return The parsed arguments of the command
+	 */
+	public String getArguments() {
+		return arguments;
+	}
+	
+	/**
+	 * Gets the sender of the message
+	 * @return The sender of the message, null in DMs
+	 */
+	public Member getSender() {
+		return sender;
+	}
+	
+	/**
+	 * Gets the channel the message was sent in
+	 * @return The channel the message was sent in
+	 */
+	public MessageChannel getChannel() {
+		return channel;
+	}
+}
@@ -0,0 +1,55 @@
+package dakota.poonani;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps command tokens such as :play: to their Commands.
+ * The leading token of a message is extracted once and looked up directly, so messages that aren't commands skip every command check at once.
+ */
+public class CommandRegistry
+{
+	/*
+	 * Fields
+	 */
+	
+	private final Map<String, Command> commands = new HashMap<String, Command>();
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Registers a command under one or more tokens
+	 * @param command The command to register
+	 * @param tokens The tokens the command is used with, including the surrounding colons e.g. :help:
+	 */
+	public void register(Command command, String... tokens) {
+		for(String token : tokens) {
+			if(commands.putIfAbsent(token, command) != null) {
+				throw new IllegalArgumentException("A command is already registered for " + token);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the leading :token: of message, or null if message doesn't begin with one
+	 * @param message The message to check
+	 * @return The leading token including its colons, or null
+	 */
+	public static String extractToken(String message) {
+		if(message.length() < 3 || message.charAt(0) != ':') return null;
+		int end = message.indexOf(':', 1);
+		if(end <= 1) return null;
+		return message.substring(0, end+1);
+	}
+	
+	/**
+	 * Gets the command registered under a token
+	 * @param token The token to look up
+	 * @return The command, or null if there is no command for the token
+	 */
+	public Command get(String token) {
+		return token == null ? null : commands.get(token);
+	}
+}
@@ -0,0 +1,347 @@
+package dakota.poonani;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+
+import discord4j.core.object.util.Snowflake;
+import discord4j.voice.VoiceConnection;
+
+/**
+ * The audio state of a single guild: its player, queue, mixer and voice connection.
+ * It is only created once the guild first joins a call, and is released as a whole when it goes idle, so guilds that never use voice hold no audio resources.
+ * Everything but the mixer must be used from the guild's mailbox.
+ */
+public class GuildAudio
+{
+	/*
+	 * Fields
+	 */
+	
+	private final AudioPlayerManager manager;
+	private final Executor mailbox;
+	private final int prefetchDepth;
+	private final int maxQueuedTracks;
+	//tracks are only copied from their resolution this far ahead of the player, so a long playlist is queued without copying all of it
+	private static final int MATERIALIZED_TRACKS = 8;
+	
+	//reused across joins until the audio state is released
+	private AudioPlayer audioPlayer;
+	//taunts play over each other and over the queue instead of waiting in it
+	private final MixingAudioProvider mixer;
+	private final TrackScheduler trackScheduler = new TrackScheduler();
+	private final LinkedBlockingQueue<AudioTrack> trackQueue = new LinkedBlockingQueue<AudioTrack>();
+	//paused players already buffering the tracks at the head of trackQueue, in the same order
+	private final ArrayDeque<AudioPlayer> standbyPlayers = new ArrayDeque<AudioPlayer>();
+	//standby players whose track failed to load, skipped along with their track once it's their turn
+	private final Set<AudioPlayer> failedStandbyPlayers = new HashSet<AudioPlayer>();
+	//the rest of each queued source after trackQueue, copied into trackQueue as it empties
+	private final ArrayDeque<PendingTracks> pendingTracks = new ArrayDeque<PendingTracks>();
+	private int pendingCount;
+	private VoiceConnection connection;
+	private Snowflake channelId;
+	private long lastActive = System.currentTimeMillis();
+	private boolean released;
+	
+	//the tracks of a resolution from next up to end that haven't been copied yet
+	private static final class PendingTracks {
+		private final TrackCache.Resolution resolution;
+		private int next;
+		private final int end;
+		
+		private PendingTracks(TrackCache.Resolution resolution, int next, int end) {
+			this.resolution = resolution;
+			this.next = next;
+			this.end = end;
+		}
+	}
+	
+	//LavaPlayer calls these from its own threads, so the work is handed to the guild's mailbox
+	private final class TrackScheduler extends AudioEventAdapter {
+		private void playNextTrack() {
+			AudioTrack next = trackQueue.poll();
+			AudioPlayer standby = standbyPlayers.poll();
+			while(standby != null && failedStandbyPlayers.remove(standby)) {
+				standby.destroy();
+				materialize();
+				next = trackQueue.poll();
+				standby = standbyPlayers.poll();
+			}
+			if(standby != null && standby.getPlayingTrack() != null) {
+				//the next track is already buffered, so switching to its player leaves no gap
+				AudioPlayer previous = audioPlayer;
+				audioPlayer = standby;
+				mixer.setMainPlayer(standby);
+				standby.setPaused(false);
+				previous.destroy();
+			} else {
+				//LavaPlayer stops the track of a player that isn't polled for too long, so a standby player may have lost its track while waiting
+				if(standby != null) {
+					standby.destroy();
+					if(next != null) next = next.makeClone();
+				}
+				if(next != null) audioPlayer.playTrack(next);
+			}
+			materialize();
+			prefetch();
+		}
+		
+		//copies pending tracks into trackQueue until it holds enough to prefetch from
+		private void materialize() {
+			int target = Math.max(MATERIALIZED_TRACKS, prefetchDepth);
+			while(trackQueue.size() < target && !pendingTracks.isEmpty()) {
+				PendingTracks head = pendingTracks.peek();
+				trackQueue.add(head.resolution.getTrack(head.next++));
+				pendingCount--;
+				if(head.next == head.end) pendingTracks.poll();
+			}
+		}
+		
+		//starts loading the queued tracks that are within the prefetch depth and don't have a player yet
+		private void prefetch() {
+			Iterator<AudioTrack> queued = trackQueue.iterator();
+			for(int i = 0; i < standbyPlayers.size() && queued.hasNext(); i++) queued.next();
+			while(standbyPlayers.size() < prefetchDepth && queued.hasNext()) {
+				AudioPlayer standby = manager.createPlayer();
+				standby.addListener(this);
+				standby.setPaused(true);
+				standby.playTrack(queued.next());
+				standbyPlayers.add(standby);
+			}
+		}
+		
+		//the queued tracks are kept, they are loaded again once something is added
+		private void releaseStandby() {
+			AudioPlayer standby;
+			while((standby = standbyPlayers.poll()) != null) standby.destroy();
+			failedStandbyPlayers.clear();
+		}
+		
+		@Override
+		public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
+			if (endReason.mayStartNext) {
+				mailbox.execute(() -> playNextTrack(player));
+			}
+		}
+		
+		@Override
+		public void onTrackException(AudioPlayer player, AudioTrack track, FriendlyException exception) {
+			mailbox.execute(() -> {
+				if(released) return;
+				if(player == audioPlayer) playNextTrack();
+				else if(standbyPlayers.contains(player)) failedStandbyPlayers.add(player);
+			});
+		}
+		
+		@Override
+		public void onTrackStuck(AudioPlayer player, AudioTrack track, long thresholdMs) {
+			mailbox.execute(() -> playNextTrack(player));
+		}
+		
+		//standby players report their own endings, which must wait until it's their turn
+		private void playNextTrack(AudioPlayer player) {
+			if(!released && player == audioPlayer) playNextTrack();
+		}
+	}
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Creates the audio state of a guild
+	 * @param manager The manager players are created from, it must output MixingAudioProvider.PCM_FORMAT
+	 * @param mailbox The guild's mailbox
+	 * @param maxVoices The most sounds that may play at once besides the queue
+	 * @param prefetchDepth The number of queued tracks that are loaded and buffered ahead of time
+	 * @param maxQueuedTracks The most tracks that may wait in the queue
+	 */
+	public GuildAudio(AudioPlayerManager manager, Executor mailbox, int maxVoices, int prefetchDepth, int maxQueuedTracks)
+	{
+		this.manager = manager;
+		this.mailbox = mailbox;
+		this.prefetchDepth = prefetchDepth;
+		this.maxQueuedTracks = maxQueuedTracks;
+		mixer = new MixingAudioProvider(maxVoices);
+		audioPlayer = manager.createPlayer();
+		audioPlayer.addListener(trackScheduler);
+		mixer.setMainPlayer(audioPlayer);
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets the provider to give the voice connection
+	 * @return The guild's mixer
+	 */
+	public MixingAudioProvider getProvider() {
+		return mixer;
+	}
+	
+	/**
+	 * Gets the current voice connection
+	 * @return The voice connection, null when not in a call
+	 */
+	public VoiceConnection getConnection() {
+		return connection;
+	}
+	
+	/**
+	 * Gets the voice channel the guild is connected to
+	 * @return The ID of the voice channel, null when not in a call
+	 */
+	public Snowflake getChannelId() {
+		return channelId;
+	}
+	
+	/**
+	 * Records a new voice connection
+	 * @param connection The voice connection
+	 * @param channelId The ID of the voice channel it is connected to
+	 */
+	public void setConnection(VoiceConnection connection, Snowflake channelId) {
+		this.connection = connection;
+		this.channelId = channelId;
+		touch();
+	}
+	
+	/**
+	 * Returns whether the queue is playing a track
+	 * @return Whether the queue is playing a track
+	 */
+	public boolean isPlaying() {
+		return audioPlayer.getPlayingTrack() != null;
+	}
+	
+	/**
+	 * Gets the number of tracks waiting in the queue, whether they were copied yet or not
+	 * @return The number of queued tracks
+	 */
+	public int getQueuedCount() {
+		return trackQueue.size() + pendingCount;
+	}
+	
+	/**
+	 * Returns whether nothing has played for at least idleMillis
+	 * @param idleMillis The idle period
+	 * @return Whether the audio state is idle
+	 */
+	public boolean isIdle(long idleMillis) {
+		if(isPlaying() || mixer.getVoiceCount() > 0) touch();
+		return System.currentTimeMillis() - lastActive >= idleMillis;
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	private void touch() {
+		lastActive = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Plays the tracks of a resolution after every track already queued, as many as fit in the queue.
+	 * Only the first few are copied now, the rest are copied as the queue reaches them
+	 * @param resolution The resolved source
+	 * @return The number of tracks queued
+	 */
+	public int addTracks(TrackCache.Resolution resolution) {
+		touch();
+		int start = 0;
+		//if nothing is currently playing, immediately play the first track, otherwise queue it
+		if(!isPlaying() && resolution.size() > 0) {
+			audioPlayer.playTrack(resolution.getTrack(0));
+			start = 1;
+		}
+		int end = start + Math.min(resolution.size() - start, Math.max(maxQueuedTracks - getQueuedCount(), 0));
+		if(end > start) {
+			pendingTracks.add(new PendingTracks(resolution, start, end));
+			pendingCount += end - start;
+			trackScheduler.materialize();
+			trackScheduler.prefetch();
+		}
+		return end;
+	}
+	
+	/**
+	 * Starts playing a cached taunt alongside everything else
+	 * @param cursor The cursor of the taunt
+	 * @return Whether it was started, false if too many sounds are playing
+	 */
+	public boolean addVoice(OpusFrameCache.Cursor cursor) {
+		touch();
+		return mixer.addVoice(cursor);
+	}
+	
+	/**
+	 * Starts playing a track alongside everything else, on a player of its own
+	 * @param track The track to play
+	 * @return Whether it was started, false if too many sounds are playing
+	 */
+	public boolean addVoice(AudioTrack track) {
+		touch();
+		AudioPlayer player = manager.createPlayer();
+		player.playTrack(track);
+		if(!mixer.addVoice(player)) {
+			player.destroy();
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Skips to the next queued track. The next track is usually already buffered, so this is instant.
+	 * It works whether or not the current track is still playing, e.g. when it failed to load
+	 */
+	public void skip() {
+		if(trackQueue.isEmpty()) {
+			audioPlayer.stopTrack();
+		} else {
+			trackScheduler.playNextTrack();
+		}
+	}
+	
+	/**
+	 * Forgets the voice connection and stops the sounds mixed over the queue. The player and queue are kept for the next join
+	 * @return The connection to disconnect, which blocks
+	 */
+	public VoiceConnection leave() {
+		VoiceConnection leaving = connection;
+		connection = null;
+		channelId = null;
+		mixer.stopVoices();
+		trackScheduler.releaseStandby();
+		touch();
+		return leaving;
+	}
+	
+	/**
+	 * Destroys every player and disconnects. The audio state can't be used afterwards
+	 * @return Runs the blocking part of the release, which must be done off of the mailbox
+	 */
+	public Runnable release() {
+		released = true;
+		VoiceConnection leaving = leave();
+		trackQueue.clear();
+		pendingTracks.clear();
+		pendingCount = 0;
+		audioPlayer.destroy();
+		return () -> {
+			if(leaving != null) leaving.disconnect();
+			//the voice thread has stopped calling the mixer once the connection is closed
+			mixer.close();
+		};
+	}
+}
@@ -2,18 +2,20 @@ package dakota.poonani;
 
 import java.awt.Color;
 import java.io.File;
-import java.io.FileInputStream;
-import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -22,32 +24,29 @@ import java.util.Properties;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.zip.DataFormatException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
-import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
-import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
-import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
-import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
-import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
-import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
-import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
 
 import discord4j.core.DiscordClient;
+import discord4j.core.event.domain.VoiceStateUpdateEvent;
 import discord4j.core.event.domain.guild.MemberJoinEvent;
+import discord4j.core.event.domain.guild.MemberLeaveEvent;
+import discord4j.core.event.domain.guild.MemberUpdateEvent;
 import discord4j.core.event.domain.message.MessageCreateEvent;
-import discord4j.core.object.PermissionOverwrite;
+import discord4j.core.event.domain.role.RoleCreateEvent;
+import discord4j.core.event.domain.role.RoleDeleteEvent;
+import discord4j.core.event.domain.role.RoleUpdateEvent;
+import discord4j.core.object.VoiceState;
 import discord4j.core.object.entity.Guild;
-import discord4j.core.object.entity.GuildMessageChannel;
 import discord4j.core.object.entity.Member;
 import discord4j.core.object.entity.Message;
 import discord4j.core.object.entity.MessageChannel;
@@ -55,11 +54,16 @@ import discord4j.core.object.entity.PrivateChannel;
 import discord4j.core.object.entity.Role;
 import discord4j.core.object.entity.TextChannel;
 import discord4j.core.object.entity.User;
+import discord4j.core.object.entity.VoiceChannel;
 import discord4j.core.object.util.Permission;
 import discord4j.core.object.util.PermissionSet;
 import discord4j.core.object.util.Snowflake;
-import discord4j.voice.AudioProvider;
 import discord4j.voice.VoiceConnection;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 public class GuildHandler {
 	
@@ -69,100 +73,112 @@ public class GuildHandler {
 	
 	private static Logger logger = LoggerFactory.getLogger(GuildHandler.class);
 	
+	//the text of the help message, loaded once from the classpath
+	private static final Properties resources = loadResources();
+	
 	private enum LoggerLevel {
 		ERROR, WARN, INFO, DEBUG
 	}
 	
-	public static DiscordClient client;
-	private static PrivateChannel authorPM;
+	//every reply is sent through this queue
+	public static OutboundQueue outbound;
+	//usernames for routine whitelists and reminder mentions
+	public static NameCache nameCache;
+	//resolved once for every guild and shard, the first time an error is reported
+	private static Mono<PrivateChannel> authorPM;
+	private static final Snowflake AUTHOR_ID = Snowflake.of(205232518696402944L);
 	
 	//Guild-specific info
+	//the client of the shard the guild belongs to
+	private final DiscordClient client;
 	private Guild guild;
 	private Role adminRole;
 	private Role colorPermRole;
-	private Set<Role> colorRoles;
-	private List<Routine> routines;
-	private List<Reminder> reminders;
+	private Set<Role> colorRoles = new HashSet<Role>();
+	//the :colors: listing, rendered again only when the color roles change
+	private String colorListing;
+	private RoleMemberIndex roleIndex = new RoleMemberIndex();
+	//answers permission checks without fetching every role of the guild
+	private RoleHierarchy roleHierarchy = new RoleHierarchy();
+	private List<Routine> routines = new LinkedList<Routine>();
+	private TriggerIndex triggerIndex = new TriggerIndex();
+	//the help message lists the routines' commands, so it is rendered again only when they change
+	private String helpMessage;
+	private List<Reminder> reminders = new LinkedList<Reminder>();
 	private boolean welcomeNewUser = true;
 	private boolean newUserMention = true;
 	private String newUserMessage = "https://www.youtube.com/watch?v=Za2PJnCAkUA";
 	
-	//Storage channel message IDs
-	private Message idStorageMessage;
-	private Long adminRoleMessageId;
-	private Long colorPermRoleMessageId;
-	private HashMap<Long, Long> colorRoleMessageIds;
-	private HashMap<Long, Long> routineMessageIds;
-	private HashMap<Long, Long> reminderMessageIds;
-	private Long newUserMessageId;
-	
 	//Storage
 	private TextChannel storageChannel;
 	private static final String STORAGE_CHANNEL = "poonaniStorage";
 	private static final String STORAGE_CHANNEL_DESC = "Where Poonani Tsunami stores information";
 	private static final String STORAGE_CHANNEL_CREATE_REASON = "Creating a channel to store information for this server (hidden by default, can be changed)";
 	
+	//Every guild's records are journaled locally under storageDirectory/[guild id], the storage channel only mirrors them
+	public static File storageDirectory = new File("storage");
+	public static JournalStorage.FsyncPolicy storageFsyncPolicy = JournalStorage.FsyncPolicy.INTERVAL;
+	private JournalStorage journal;
+	private GuildStorage storage;
+	//restores the stored records, subscribing to it again after an error retries what failed
+	private Mono<Void> restoration;
+	
 	//Audio
 	public static AudioPlayerManager audioPlayerManager;
-	private AudioPlayer audioPlayer;
-	private LavaPlayerAudioProvider lavaPlayer = new LavaPlayerAudioProvider();
-	private TrackScheduler trackScheduler = new TrackScheduler();
-	private LinkedBlockingQueue<AudioTrack> trackQueue = new LinkedBlockingQueue<AudioTrack>();
-	private VoiceConnection connection;
-	
-	private final class LavaPlayerAudioProvider extends AudioProvider {
-		private final MutableAudioFrame frame = new MutableAudioFrame();
-		
-		public LavaPlayerAudioProvider() {
-			super(ByteBuffer.allocate(StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize()));
-	        frame.setBuffer(getBuffer());
-		}
-		
-		@Override
-		public boolean provide() {
-			final boolean didProvide = audioPlayer.provide(frame);
-			if(didProvide) {
-				getBuffer().flip();
-			}
-			return didProvide;
-		}
-	}
+	public static TauntCatalog tauntCatalog;
+	public static OpusFrameCache opusFrameCache;
+	public static TrackCache trackCache;
+	public static RemoteAudioCache remoteAudioCache;
+	//players mixed by the mixer must be created from this manager, which outputs PCM
+	public static AudioPlayerManager pcmAudioPlayerManager;
+	public static int maxMixerVoices = 8;
+	//number of queued tracks that are loaded and buffered ahead of time
+	public static int prefetchDepth = 1;
+	public static int maxQueuedTracks = 500;
+	//released after this long without anything playing
+	public static long audioIdleMillis = 5 * 60 * 1000;
+	private static final Duration AUDIO_IDLE_CHECK = Duration.ofSeconds(30);
+	//created on the first join, so guilds that never use voice hold no audio resources
+	private GuildAudio audio;
+	private Disposable idleCheck;
 	
-	private final class TrackScheduler extends AudioEventAdapter {
-		private void playNextTrack() {
-			AudioTrack next = trackQueue.poll();
-			if(next != null) audioPlayer.playTrack(next);
-		}
-		
-		public void addTrack(AudioTrack track) {
-			//if nothing is currently playing, immediately play the track, otherwise queue it
-			if(audioPlayer.getPlayingTrack() == null) {
-				audioPlayer.playTrack(track);
-			} else {
-				try {
-					trackQueue.put(track);
-				} catch (InterruptedException e) {
-					e.getMessage();
-				}
-			}
-		}
-		
-		@Override
-		public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
-			if (endReason.mayStartNext) {
-				playNextTrack();
-			}
-		}
-
-		@Override
-		public void onTrackException(AudioPlayer player, AudioTrack track, FriendlyException exception) {
-			playNextTrack();
-		}
-
-		@Override
-		public void onTrackStuck(AudioPlayer player, AudioTrack track, long thresholdMs) {
-			playNextTrack();
-		}
+	//Bounded pool for the work that can only be done by blocking, so it stays off of the event threads
+	public static Scheduler blockingScheduler;
+	
+	//Fires the reminders of every guild
+	public static ReminderScheduler reminderScheduler;
+	//the same callback for every reminder of this guild, so the scheduler can batch the ones that come due together
+	private final Consumer<List<Reminder>> remindersDue = this::remindersDue;
+	private static final int REMINDER_DELIVERY_CONCURRENCY = 4;
+	
+	//Pool shared by every guild's mailbox. All of a guild's state is only touched from its mailbox, so its work runs in order while other guilds run in parallel
+	public static Executor lanePool;
+	private final GuildMailbox mailbox = new GuildMailbox(lanePool);
+	private final Scheduler lane = Schedulers.fromExecutor(mailbox);
+	//the guild's stored state and indexes are loaded once, on the mailbox, either during startup or on first use. A failed load isn't cached, the next caller retries it
+	private static final Duration HYDRATED_FOREVER = Duration.ofMillis(Long.MAX_VALUE);
+	private final Mono<Void> hydration = Mono.defer(this::hydrateNow).subscribeOn(lane)
+			.cache(done -> HYDRATED_FOREVER, error -> Duration.ZERO, () -> HYDRATED_FOREVER);
+	
+	//Commands, looked up by their leading :token:
+	private static final CommandRegistry commands = new CommandRegistry();
+	static {
+		commands.register(new Command(false, false, Command.ANY_ARGUMENTS, (handler, context) -> handler.handleHelpMessage(context.getEvent(), context.getSender())), ":help:", ":?:");
+		commands.register(new Command(true, false, Command.ANY_ARGUMENTS, (handler, context) -> handler.handleColors(context.getChannel())), ":colors:");
+		commands.register(new Command(true, true, Command.requiredArguments("Provide the ID of the role after the :setcolorpermrole: command."), (handler, context) -> handler.handleColorPermRole(context.getArguments(), context.getChannel())), ":setcolorpermrole:");
+		//TODO: dupe check
+		commands.register(new Command(true, false, Command.requiredArguments("Improper arguments."), (handler, context) -> handler.handleAddColor(context.getArguments(), context.getSender(), context.getChannel())), ":addcolor:");
+		commands.register(new Command(true, false, Command.requiredArguments("Provide the ID of the color after the :removecolor: command."), (handler, context) -> handler.handleRemoveColor(context.getArguments(), context.getSender(), context.getChannel())), ":removecolor:");
+		commands.register(new Command(true, false, Command.requiredArguments("Provide the ID of the color after the :setcolor: command."), (handler, context) -> handler.handleSetColor(context.getArguments(), context.getSender(), context.getChannel())), ":setcolor:");
+		commands.register(new Command(false, false, Command.ANY_ARGUMENTS, (handler, context) -> handleTaunts(context.getEvent(), context.getSender())), ":taunts:");
+		//also check leave and skip when there's nothing playing
+		commands.register(new Command(true, false, Command.ANY_ARGUMENTS, (handler, context) -> handler.handleJoin(context.getSender(), context.getChannel())), ":join:");
+		commands.register(new Command(true, false, Command.ANY_ARGUMENTS, (handler, context) -> handler.handleLeave(context.getChannel())), ":leave:");
+		commands.register(new Command(true, false, Command.requiredArguments("No argument provided. Provide a taunt name or link after the :play: command."), (handler, context) -> handler.handlePlay(context.getArguments(), context.getChannel())), ":play:");
+		commands.register(new Command(true, false, Command.ANY_ARGUMENTS, (handler, context) -> handler.handleSkip(context.getChannel())), ":skip:");
+		commands.register(new Command(false, false, Command.requiredArguments("The usage is :remindme: HR:MN PM MonthName dd, yyyy true/false event; hour and day must be 2 digits."), (handler, context) -> handler.handleAddReminder(context.getMessage(), context.getEvent().getMessage().getAuthor().get().getId().asLong(), context.getChannel())), ":remindme:");
+		//TODO: dupe check
+		commands.register(new Command(true, true, Command.requiredArguments("The syntax is :addnew: :triggers: true/false userIDs true/false response."), (handler, context) -> handler.handleAddRoutine(context.getMessage(), context.getChannel())), ":addnew:");
 	}
 	
 	/*
@@ -170,29 +186,17 @@ public class GuildHandler {
 	 */
 	
 	/**
-	 * Constructs the handler for a given guild and performs all necessary initialization
+	 * Constructs the handler for a given guild. Nothing is loaded until the handler is hydrated, so constructing it never blocks
 	 * @param guild
 	 */
 	public GuildHandler(Guild guild) {
 		this.guild = guild;
-//		logWithGuildId(LoggerLevel.DEBUG, "Starting handler initialization. beginning storage channel and admin role initialization");
-//		retrieveStorageChannelAndAdminRole();
-//		logWithGuildId(LoggerLevel.DEBUG, "Completed storage channel and admin role initialization, beginning color perm role initialization");
-//		retrieveColorPermRole();
-//		logWithGuildId(LoggerLevel.DEBUG, "Completed color perm role initialization, beginning color role initialization");
-//		retrieveColorRoles();
-//		logWithGuildId(LoggerLevel.DEBUG, "Completed color role initialization, beginning routine initialization");
-//		retrieveRoutines();
-//		logWithGuildId(LoggerLevel.DEBUG, "Completed routine initialization, beginning reminder initialization");
-//		retrieveReminders();
-//		logWithGuildId(LoggerLevel.DEBUG, "Completed reminder initialization, beginning user join message initialization");
-//		retrieveUserJoinMessage();
-//		logWithGuildId(LoggerLevel.DEBUG, "Completed user join message initialization, finished handler initialization");
+		this.client = guild.getClient();
 		
 		//send welcome message into storage channel tagging admin role, describing settings that can be set
 		
 		//initialize PM channel between poonani and me for automatic error reporting
-		authorPM = client.getUserById(Snowflake.of(205232518696402944L)).flatMap(user -> user.getPrivateChannel()).block();
+		resolveAuthorPM(client);
 	}
 	
 	/*
@@ -215,10 +219,43 @@ public class GuildHandler {
 		return reminders;
 	}
 	
+	/**
+	 * Loads this guild's stored state and seeds its role indexes the first time it's called. Messages wait for it, so it is done on first use if it wasn't done at startup
+	 * @return Completes once the local records are restored
+	 */
+	public Mono<Void> hydrate() {
+		return hydration;
+	}
+	
+	/**
+	 * Makes every stored record of this guild durable and releases its storage
+	 */
+	public void close() {
+		logWithGuildId(LoggerLevel.INFO, "Answered " + roleHierarchy.getSnapshotChecks() + " permission checks from the role hierarchy in " + roleHierarchy.getAverageSnapshotMicros() + "us on average, "
+				+ roleHierarchy.getFetchedChecks() + " by fetching the roles in " + roleHierarchy.getAverageFetchedMicros() + "us on average");
+		if(storage == null) return;
+		try {
+			storage.close();
+		} catch(UncheckedIOException e) {
+			logWithGuildId(LoggerLevel.ERROR, "Closing the storage failed:\n" + e.getMessage());
+		}
+	}
+	
 	/*
 	 * Utility methods
 	 */
 	
+	//the channel is the same for every guild, so it's only looked up once
+	private static synchronized void resolveAuthorPM(DiscordClient client) {
+		if(authorPM != null) return;
+		//deferred, the author is only looked up once an error is reported
+		authorPM = Mono.defer(() -> client.getUserById(AUTHOR_ID))
+				.flatMap(User::getPrivateChannel)
+				.doOnError(error -> logger.error("The author's PM channel could not be resolved, errors will not be reported:\n" + error.getMessage()))
+				.onErrorResume(error -> Mono.empty())
+				.cache();
+	}
+	
 	private void logWithGuildId(LoggerLevel level, String message) {
 		switch (level) {
 			case ERROR:
@@ -242,71 +279,73 @@ public class GuildHandler {
 		return set.and(PermissionSet.of(permission)).equals(PermissionSet.of(permission));
 	}
 	
-	private static boolean permissionTest(Member member, Role permRole)
+	private Mono<Boolean> permissionTest(Member member, Role permRole)
 	{
-		return member.getHighestRole().block().getPosition().block() >= permRole.getPosition().block();
+		//nobody passes a check against a role that hasn't been set up
+		if(permRole == null) return Mono.just(false);
+		long start = System.nanoTime();
+		if(roleHierarchy.isSeeded()) {
+			boolean permitted = roleHierarchy.isAtOrAbove(member, permRole.getId());
+			roleHierarchy.recordCheck(System.nanoTime() - start, true);
+			return Mono.just(permitted);
+		}
+		return member.getHighestRole().flatMap(Role::getPosition)
+				.zipWith(permRole.getPosition(), (memberPosition, permPosition) -> memberPosition >= permPosition)
+				.defaultIfEmpty(false)
+				.doOnNext(permitted -> roleHierarchy.recordCheck(System.nanoTime() - start, false));
 	}
 	
-	//given a newline before the line with an ID, returns the ID by returning everything up until the next newline as a Long
-	private Long getIdFromStorageMessage(int newlineIndex) {
-		String storageMessage = idStorageMessage.getContent().get();
-		storageMessage = storageMessage.substring(newlineIndex);
-		return Long.valueOf(storageMessage.substring(0, storageMessage.indexOf("\n")));
+	//a guild without a stored admin role gets the lowest role that can already manage the server, or a new one given to the owner
+	private Mono<Void> ensureAdminRole() {
+		if(adminRole != null) return Mono.empty();
+		return guild.getRoles()
+				.filter(role -> !role.isEveryone() && setContainsPermission(role.getPermissions(), Permission.MANAGE_GUILD))
+				.sort(Comparator.comparingLong(role -> role.getPermissions().getRawValue()))
+				.next()
+				.doOnNext(role -> logWithGuildId(LoggerLevel.DEBUG, "Found an existing role with the Manage Server permission, assigned it to adminRole"))
+				.switchIfEmpty(Mono.defer(this::createDefaultAdminRole))
+				.publishOn(lane)
+				.doOnNext(role -> {
+					//a record may have been restored meanwhile
+					if(adminRole != null) return;
+					adminRole = role;
+					storeAdminRole();
+				})
+				.then();
 	}
 	
-	private void createDefaultAdminRole() {
-		adminRole = guild.createRole(spec -> spec.setName("Poonani Admin").setReason("No admin role for Poonani existed yet, created a default").setPermissions(PermissionSet.of(Permission.MANAGE_GUILD))).block();
-		guild.getOwner().subscribe(owner -> owner.addRole(adminRole.getId()));
-		logWithGuildId(LoggerLevel.DEBUG, "Created initial default admin role and assigned to guild owner successfully");
+	private Mono<Role> createDefaultAdminRole() {
+		return guild.createRole(spec -> spec.setName("Poonani Admin").setReason("No admin role for Poonani existed yet, created a default").setPermissions(PermissionSet.of(Permission.MANAGE_GUILD)))
+				.flatMap(role -> guild.getOwner().flatMap(owner -> owner.addRole(role.getId())).thenReturn(role))
+				.doOnNext(role -> logWithGuildId(LoggerLevel.DEBUG, "Created initial default admin role and assigned to guild owner successfully"));
 	}
 	
 	/*
 	 * Storage methods
 	 */
 	
-	//This method is separated from createDefaultAdminRole because during guild initialization the storage channel must be created in between the role's creation and storage
+	//This method is separated from createDefaultAdminRole because an existing role chosen as the admin role is stored too
 	private void storeAdminRole() {
-		adminRoleMessageId = storageChannel.createMessage("ADMIN ROLE:\n" + adminRole.getId().asLong()).block().getId().asLong();
-		if(adminRoleMessageId != null) {
-			logWithGuildId(LoggerLevel.DEBUG, "Successfully stored the admin role information in the storage channel");
-			
-			//insert ID of admin role message into ID storage message
-			idStorageMessage.edit(messageSpec -> {
-				messageSpec.setContent(idStorageMessage.getContent().get() + "\nADMIN ROLE MESSAGE:\n" + adminRoleMessageId);
-			});
-		} else {
-			logWithGuildId(LoggerLevel.ERROR, "Something went wrong while storing the admin role information in the storage channel");
-		}
+		store(new StorageRecord(StorageRecord.Type.ADMIN_ROLE, String.valueOf(adminRole.getId().asLong())));
 	}
 	
 	private void storeColorPermRole() {
-		colorPermRoleMessageId = storageChannel.createMessage("COLOR PERM ROLE:\n" + colorPermRole.getId().asLong()).block().getId().asLong();
-		if(colorPermRoleMessageId != null) {
-			logWithGuildId(LoggerLevel.DEBUG, "Successfully stored the color perm role information in the storage channel");
-			
-			//insert ID of color perm role message into ID storage message
-			idStorageMessage.edit(messageSpec -> {
-				messageSpec.setContent(idStorageMessage.getContent().get() + "\nCOLOR PERM ROLE MESSAGE:\n" + colorPermRoleMessageId);
-			});
-		} else {
-			logWithGuildId(LoggerLevel.ERROR, "Something went wrong while storing the color perm role information in the storage channel");
-		}
+		store(new StorageRecord(StorageRecord.Type.COLOR_PERM_ROLE, String.valueOf(colorPermRole.getId().asLong())));
+	}
+	
+	private static StorageRecord colorRoleRecord(Role role) {
+		return new StorageRecord(StorageRecord.Type.COLOR_ROLE, String.valueOf(role.getId().asLong()));
 	}
 	
 	private void storeColorRole(Role role)
 	{
-		
+		store(colorRoleRecord(role));
 	}
 	
 	//usage: :addnew: :triggers: true/false users true/false response
-	/**
-	 * Validates and stores a new routine.
-	 * @param routine
-	 */
-	private void storeRoutine(Routine routine)
+	private static StorageRecord routineRecord(Routine routine)
 	{
-		//perm checks below in handleAdd
-		String routineMessage = "ROUTINE:\n:addnew: ";
+		String routineMessage = ":addnew: ";
 		for(String trigger : routine.getTriggers()) {
 			routineMessage += trigger += " ";
 		}
@@ -316,205 +355,188 @@ public class GuildHandler {
 		}
 		routineMessage += String.valueOf(routine.getTTS()) + " ";
 		routineMessage += routine.getResponse();
-		storageChannel.createMessage(routineMessage).block();
+		return new StorageRecord(StorageRecord.Type.ROUTINE, routineMessage);
+	}
+	
+	/**
+	 * Stores a new routine.
+	 * @param routine
+	 */
+	private void storeRoutine(Routine routine)
+	{
+		//perm checks below in handleAdd
+		store(routineRecord(routine));
 	}
 	
 	//usage: :remindme: HR:MN PM MonthName dd, yyyy true/false event; hour and day must be 2 digits, time zone must be US Central
+	private static StorageRecord reminderRecord(Reminder reminder)
+	{
+		return new StorageRecord(StorageRecord.Type.REMINDER, reminder.getUserId() + "\n" + reminder.getChannelId() + "\n:remindme: "
+				+ DateTimeFormatter.ofPattern("KK:mm a MMMM dd, yyyy").format(reminder.getTime()) + " "
+				+ String.valueOf(reminder.getMention()) + " "
+				+ reminder.getEvent());
+	}
+	
 	private void storeReminder(Reminder reminder)
 	{
 		//perm checks below in handleAdd
-		storageChannel.createMessage("REMINDER:\n:remindme: "
-				+ DateTimeFormatter.ofPattern("KK:mm a MMMM dd, yyyy").format(reminder.getTime()) + " "
-				+ String.valueOf(reminder.getMention())
-				+ reminder.getEvent()).block();
+		store(reminderRecord(reminder));
 	}
 	
-	/*
-	 * Retrieval methods
-	 */
+	private void store(StorageRecord record) {
+		if(storage == null) {
+			logWithGuildId(LoggerLevel.WARN, "No storage, the " + record.getType().getHeader() + " record will not be stored");
+			return;
+		}
+		try {
+			storage.put(record);
+		} catch(UncheckedIOException e) {
+			logWithGuildId(LoggerLevel.ERROR, "Storing a " + record.getType().getHeader() + " record failed:\n" + e.getMessage());
+		}
+	}
 	
-	/**
-	 * These two processes are handled in the same method because they are interdependent.
-	 * If they don't exist the admin role is created, first, but if they do exist the storage channel must be read first
-	 * If the storage channel does exist, then all the pinned messages are searched to find the stored admin role. The admin role is in the format:
-	 * ADMIN ROLE:
-	 * [role id]
-	 */
-	private void retrieveStorageChannelAndAdminRole() {
-		guild.getChannels().filter(channel -> channel instanceof TextChannel).filter(channel -> channel.getName().equals(STORAGE_CHANNEL)).collectList().subscribe(channels -> {
-			if(channels.isEmpty()) {
-				//new guild, create default admin role and assign to owner
-				logWithGuildId(LoggerLevel.DEBUG, "Storage channel not found, creating it with perms for the lowest role with Manage Server permissions");
-				
-				//sort roles from lowest perms to highest; find the lowest role that has the Manage Server permission
-				adminRole = guild.getRoles().sort((Role r1, Role r2) -> ((Long) r1.getPermissions().getRawValue()).compareTo((Long) r2.getPermissions().getRawValue())).filter(role -> setContainsPermission(role.getPermissions(), Permission.MANAGE_GUILD)).blockFirst();
-				if(adminRole != null) {
-					logWithGuildId(LoggerLevel.DEBUG, "Found an existing role with the Manage Server permission, assigned it to adminRole");
-				} else {
-					logWithGuildId(LoggerLevel.DEBUG, "Did not find an existing role with the Manage Server permission. Creating one and assigning it to the owner");
-					createDefaultAdminRole();
-					
-					//create a new channel that is visible to adminRole and Poonani but not visible to @everyone role
-					Set<PermissionOverwrite> perms = new HashSet<PermissionOverwrite>();
-					perms.add(PermissionOverwrite.forRole(guild.getEveryoneRole().block().getId(), PermissionSet.none(), PermissionSet.of(Permission.VIEW_CHANNEL)));
-					perms.add(PermissionOverwrite.forRole(adminRole.getId(), PermissionSet.of(Permission.VIEW_CHANNEL), PermissionSet.none()));
-					perms.add(PermissionOverwrite.forMember(client.getSelf().block().asMember(guild.getId()).block().getId(), PermissionSet.of(Permission.VIEW_CHANNEL), PermissionSet.none()));
-					storageChannel = guild.createTextChannel(spec -> spec.setName(STORAGE_CHANNEL).setTopic(STORAGE_CHANNEL_DESC).setPermissionOverwrites(perms).setReason(STORAGE_CHANNEL_CREATE_REASON)).block();
-					if(storageChannel != null) {
-						logWithGuildId(LoggerLevel.DEBUG, "Storage channel created successfully");
-						
-						//create the ID storage message
-						idStorageMessage = storageChannel.createMessage("Stored information message IDs:").block();
-						if(idStorageMessage != null) {
-							logWithGuildId(LoggerLevel.DEBUG, "ID storage message created successfully");
-						} else {
-							logWithGuildId(LoggerLevel.DEBUG, "Something went wrong while creating the ID storage message");
-							return;
-						}
-					} else {
-						logWithGuildId(LoggerLevel.ERROR, "Something went wrong while creating the storage channel");
-						return;
-					}
-				}
-				storeAdminRole();
-			} else {
-				logWithGuildId(LoggerLevel.DEBUG, "Storage channel found successfully");
-				storageChannel = (TextChannel) channels.get(0);
-				
-				//retrieve admin role
-				try {
-					storageChannel.getPinnedMessages().filter(message -> message.getContent().filter(content -> content.startsWith("ADMIN ROLE:\n")).isPresent()).subscribe(message -> {
-						adminRole = client.getRoleById(guild.getId(), Snowflake.of(Long.valueOf(message.getContent().get().split("\n")[1]))).block();
-						if(adminRole != null) {
-							logWithGuildId(LoggerLevel.DEBUG, "Retrieved the admin role successfully");
-						} else {
-							logWithGuildId(LoggerLevel.ERROR, "Something went wrong while retrieving the admin role");
-						}
-					});
-					if(adminRole == null) {
-						logWithGuildId(LoggerLevel.DEBUG, "Storage channel exists but adminRole message does not exist, guild data may be in a bad state. Creating default role");
-						createDefaultAdminRole();
-						storeAdminRole();
-					}
-				} catch(Exception e) {
-					logWithGuildId(LoggerLevel.ERROR, "Admin Role message retrieval failed:\n" + e.getMessage());
-				}
-			}
-		});
+	private void unstore(StorageRecord record) {
+		if(storage == null) return;
+		try {
+			storage.remove(record);
+		} catch(UncheckedIOException e) {
+			logWithGuildId(LoggerLevel.ERROR, "Removing a " + record.getType().getHeader() + " record failed:\n" + e.getMessage());
+		}
 	}
 	
-	/**
-	 * Default behavior at initialization sets the color perm role to be the admin role.
-	 * The color permission role is in the format:
-	 * COLOR PERM ROLE:
-	 * [role id]
-	 */
-	private void retrieveColorPermRole() {
-		if(idStorageMessage.getContent().get().indexOf("COLOR PERM ROLE:\n") == -1) {
-			colorPermRole = adminRole;
-			colorPermRoleMessageId = storageChannel.createMessage("COLOR PERM ROLE:\n" + colorPermRole.getId().asLong()).block().getId().asLong();
-			//idstoragemessage edit
-			logWithGuildId(LoggerLevel.DEBUG, "New guild, set the color perm role to the admin role and stored it in the storage channel");
-		} else {
-			colorPermRoleMessageId = getIdFromStorageMessage(idStorageMessage.getContent().get().indexOf("COLOR PERM ROLE:\n") + 17);
-			colorPermRole = client.getRoleById(guild.getId(), Snowflake.of(Long.valueOf(storageChannel.getMessageById(Snowflake.of(colorPermRoleMessageId)).block().getContent().get().split("\n")[1]))).block();
-			if(colorPermRole != null) {
-				logWithGuildId(LoggerLevel.DEBUG, "Successfully retrieved the existing color perm role");
-			} else {
-				logWithGuildId(LoggerLevel.DEBUG, "Something went wrong while attempting to retrieve the existing color perm role! Attempting to salvage by setting the color perm role to the admin role");
-				colorPermRole = adminRole;
-				colorPermRoleMessageId = storageChannel.createMessage("COLOR PERM ROLE:\n" + colorPermRole.getId().asLong()).block().getId().asLong();
-				//idstoragemessage edit
-			}
+	//only the first attempt seeds the indexes and opens the storage, a retry only repeats the restoration. Until they are seeded the indexes answer by fetching
+	private Mono<Void> hydrateNow() {
+		if(restoration == null) {
+			seedRoleIndex();
+			seedRoleHierarchy();
+			restoration = openStorage();
 		}
+		return restoration;
 	}
 	
 	/**
-	 * One message contains COLOR ROLE MESSAGES:\n followed by newline delineated list of IDs
-	 * Color roles are in the format:
-	 * COLOR ROLE:
-	 * [role id]
+	 * Opens this guild's local journal and restores every record from it, then reads the storage channel once to mirror writes to.
+	 * If the journal is new, the records pinned in the storage channel are imported into it instead.
+	 * @return Completes once the local records are restored, the storage channel is read in the background. Errors aren't handled, subscribing again retries
 	 */
-	private void retrieveColorRoles() {
-		colorRoles = new HashSet<Role>();
-		if(colorRoleMessageIds == null) {
-			colorPermRoleMessageId = storageChannel.createMessage("COLOR PERM ROLE:\n" + colorPermRole.getId().asLong()).block().getId().asLong();
-			logWithGuildId(LoggerLevel.DEBUG, "New guild, set the color perm role to the admin role and stored it in the storage channel");
-		} else {
-			
+	private Mono<Void> openStorage() {
+		long start = System.currentTimeMillis();
+		try {
+			journal = new JournalStorage(new File(storageDirectory, guild.getId().asString()), storageFsyncPolicy);
+			storage = journal;
+		} catch(IOException | UncheckedIOException e) {
+			logWithGuildId(LoggerLevel.ERROR, "Opening the local storage failed, records will only be stored in the storage channel:\n" + e.getMessage());
 		}
-		storageChannel.getPinnedMessages().filter(message -> message.getContent().filter(content -> content.startsWith("COLOR ROLE:\n")).isPresent()).subscribe(message -> {
-			try {
-				//get everything after the first newline, since in stored form the message should be COLOR ROLE:\n[actual message]
-				colorRoles.add(client.getRoleById(guild.getId(), Snowflake.of(Long.valueOf(message.getContent().get().split("\n")[1]))).block());
-				logWithGuildId(LoggerLevel.DEBUG, "Found a color role and successfully stored it");
-			} catch(IllegalArgumentException e) {
-				logWithGuildId(LoggerLevel.ERROR, "Color Role retrieval failed:\n" + e.getMessage());
-			}
-		});
+		List<StorageRecord> local = journal == null ? new ArrayList<StorageRecord>() : journal.load();
+		StorageChannelLoader loader = createLoader();
+		//the records are parsed right away, only the roles they refer to are fetched on subscription, so that is all a retry repeats
+		Mono<Integer> localFailures = loader.dispatch(guild, local, lane);
+		long localMillis = System.currentTimeMillis() - start;
+		
+		Mono<Integer> channelFailures = StorageChannelLoader.findChannel(guild, STORAGE_CHANNEL)
+				.flatMap(StorageChannelLoader::read)
+				.publishOn(lane)
+				.flatMap(result -> attachStorageChannel(result, local.isEmpty(), loader))
+				.defaultIfEmpty(0)
+				//the mirror is optional, e.g. the bot may not be allowed to read the channel's pins, so the local records are enough to go on
+				.onErrorResume(error -> {
+					logWithGuildId(LoggerLevel.ERROR, "Reading the storage channel failed, records will only be stored locally:\n" + error.getMessage());
+					return Mono.just(0);
+				})
+				.cache();
+		//the storage channel is read alongside the local records
+		channelFailures.subscribe();
+		return localFailures
+				.doOnNext(failures -> channelFailures.subscribe(channelFailed -> {
+					logWithGuildId(LoggerLevel.INFO, "Initialized storage in " + (System.currentTimeMillis() - start) + "ms, restored " + local.size() + " local records in " + localMillis + "ms"
+							+ (failures + channelFailed > 0 ? ", " + (failures + channelFailed) + " records could not be restored" : ""));
+					//only once every record is restored, so a stored admin role is never replaced
+					Mono.defer(this::ensureAdminRole).subscribeOn(lane).subscribe(
+							done -> {},
+							error -> logWithGuildId(LoggerLevel.ERROR, "Setting up the admin role failed:\n" + error.getMessage()));
+				}))
+				.then();
 	}
 	
-	/**
-	 * At initialization, searches all the pinned messages of the storage channel to find stored Routines. Routines are in the format:
-	 * ROUTINE:
-	 * usual routine command e.g. :addnew: ...etc.
-	 */
-	private void retrieveRoutines() {
-		routines = new LinkedList<Routine>();
-		storageChannel.getPinnedMessages().filter(message -> message.getContent().filter(content -> content.startsWith("ROUTINE:\n")).isPresent()).subscribe(message -> {
+	//the only time every member is downloaded, the index is kept current from events afterwards
+	private void seedRoleIndex() {
+		long start = System.currentTimeMillis();
+		guild.getMembers().collectList().publishOn(lane).subscribe(
+				members -> {
+					roleIndex.seed(members);
+					logWithGuildId(LoggerLevel.DEBUG, "Indexed the roles of " + members.size() + " members in " + (System.currentTimeMillis() - start) + "ms");
+				},
+				error -> logWithGuildId(LoggerLevel.ERROR, "Indexing the members' roles failed:\n" + error.getMessage()));
+	}
+	
+	private void seedRoleHierarchy() {
+		guild.getRoles().collectList().publishOn(lane).subscribe(
+				roles -> roleHierarchy.seed(roles),
+				error -> logWithGuildId(LoggerLevel.ERROR, "Reading the role hierarchy failed:\n" + error.getMessage()));
+	}
+	
+	//mirrors every write to the storage channel, importing its records if there weren't any locally. Emits the number of records that could not be imported
+	private Mono<Integer> attachStorageChannel(StorageChannelLoader.Result result, boolean importRecords, StorageChannelLoader loader) {
+		storageChannel = result.getChannel();
+		logWithGuildId(LoggerLevel.DEBUG, "Read " + result.getRecords().size() + " records from the storage channel in " + result.getElapsedMillis() + "ms");
+		PinnedMessageStorage mirror = new PinnedMessageStorage(result);
+		Mono<Integer> failures = Mono.just(0);
+		if(importRecords) {
 			try {
-				//get everything after the first newline, since in stored form the message should be ROUTINE:\n[actual message]
-				routines.add(parseRoutine(message.getContent().get().split("\n")[1]));
-				logWithGuildId(LoggerLevel.DEBUG, "Found a routine and successfully stored it");
-			} catch(IllegalArgumentException e) {
-				logWithGuildId(LoggerLevel.ERROR, "Routine message failed to parse:\n" + e.getMessage());
+				if(journal != null) for(StorageRecord record : result.getRecords()) journal.put(record);
+			} catch(UncheckedIOException e) {
+				logWithGuildId(LoggerLevel.ERROR, "Importing the storage channel into the local storage failed:\n" + e.getMessage());
 			}
-		});
+			failures = loader.dispatch(guild, result.getRecords(), lane);
+			logWithGuildId(LoggerLevel.INFO, "Imported " + result.getRecords().size() + " records from the storage channel");
+		} else {
+			//records written while there was no mirror
+			for(StorageRecord record : journal.load()) {
+				if(!result.getMessages().containsKey(record.getId())) mirror.put(record);
+			}
+		}
+		storage = journal == null ? mirror : new MirroredStorage(journal, mirror);
+		return failures;
 	}
 	
 	/**
-	 * At initialization, searches all the pinned messages of the storage channel to find stored Reminders. Reminders are in the format:
+	 * Creates the parsers that apply every type of stored record to this guild's state. Records have the formats:
+	 * ROUTINE:
+	 * usual routine command e.g. :addnew: ...etc.
+	 * 
 	 * REMINDER:
 	 * [userid]
 	 * [channelid]
 	 * usual reminder command e.g. :remindme: ...etc.
-	 */
-	private void retrieveReminders() {
-		reminders = new LinkedList<Reminder>();
-		storageChannel.getPinnedMessages().filter(message -> message.getContent().filter(content -> content.startsWith("REMINDER:\n")).isPresent()).subscribe(message -> {
-			try {
-				//get everything after the first three newlines, since in stored form the message should be REMINDER:\n[userid]\n[channelid]\n[actual message]
-				String[] content = message.getContent().get().split("\n");
-				//TODO: NULL CHECK!
-				reminders.add(parseReminder(content[3], Long.valueOf(content[1]), (MessageChannel) client.getChannelById(Snowflake.of(Long.valueOf(content[2]))).block()));
-				logWithGuildId(LoggerLevel.DEBUG, "Found a reminder and successfully stored it");
-			} catch(IllegalArgumentException e) {
-				logWithGuildId(LoggerLevel.ERROR, "Reminder message failed to parse:\n" + e.getMessage());
-			}
-		});
-	}
-	
-	/**
-	 * At initialization, searches all the pinned messages of the storage channel to find the stored user join message. The message is in the format:
+	 * 
 	 * USER JOIN MESSAGE:
 	 * whether this feature is enabled
 	 * whether the user should be mentioned at the beginning of the message, as "true"/"false"
 	 * The message
-	 * TODO: log when no settings are found
+	 * 
+	 * ADMIN ROLE:, COLOR PERM ROLE: or COLOR ROLE:
+	 * [role id]
 	 */
-	private void retrieveUserJoinMessage() {
-		try {
-			storageChannel.getPinnedMessages().filter(message -> message.getContent().filter(content -> content.startsWith("USER JOIN MESSAGE:\n")).isPresent()).subscribe(message -> {
-				//get everything after the first newline, since in stored form the message should be COLOR ROLE:\ntrue/false\ntrue/false\n[actual message]
-				String[] args = message.getContent().get().split("\n");
-				welcomeNewUser = Boolean.valueOf(args[1]);
-				newUserMention = Boolean.valueOf(args[2]);
-				newUserMessage = args[3];
-				logWithGuildId(LoggerLevel.DEBUG, "Found user join message settings and stored them successfully");
-			});
-		} catch(Exception e) {
-			logWithGuildId(LoggerLevel.ERROR, "User join message retrieval failed:\n" + e.getMessage());
-		}
+	private StorageChannelLoader createLoader() {
+		return new StorageChannelLoader()
+				.on(StorageRecord.Type.ROUTINE, record -> {
+					addRoutine(parseRoutine(record.getContent()));
+				})
+				.on(StorageRecord.Type.REMINDER, record -> {
+					String[] content = record.getContent().split("\n", 3);
+					Reminder reminder = parseReminder(content[2], Long.valueOf(content[0]), Long.valueOf(content[1]));
+					reminders.add(reminder);
+					reminderScheduler.schedule(reminder, remindersDue);
+				})
+				.on(StorageRecord.Type.USER_JOIN_MESSAGE, record -> {
+					String[] args = record.getContent().split("\n", 3);
+					welcomeNewUser = Boolean.valueOf(args[0]);
+					newUserMention = Boolean.valueOf(args[1]);
+					newUserMessage = args[2];
+				})
+				.onRole(StorageRecord.Type.ADMIN_ROLE, role -> adminRole = role)
+				.onRole(StorageRecord.Type.COLOR_PERM_ROLE, role -> colorPermRole = role)
+				.onRole(StorageRecord.Type.COLOR_ROLE, this::addColorRole);
 	}
 	
 	/*
@@ -525,16 +547,16 @@ public class GuildHandler {
 	 * Prints a message to the system channel welcoming a new user, if the feature is enabled.
 	 * May or may not mention the user depending on the mention setting.
 	 * @param event The event for the member joining
+	 * @return The completion of the welcome message
 	 */
-	public void handle(MemberJoinEvent event)
+	public Mono<Void> handle(MemberJoinEvent event)
 	{
-		if(!welcomeNewUser) return;
+		if(!welcomeNewUser) return Mono.empty();
 		Member newUser = event.getMember();
-		if(newUserMention) {
-			guild.getSystemChannel().block().createMessage(newUserMessage).block();
-		} else {
-			guild.getSystemChannel().block().createMessage(newUser.getMention() + " " + newUserMessage).block();
-		}
+		String welcome = newUserMention ? newUser.getMention() + " " + newUserMessage : newUserMessage;
+		return guild.getSystemChannel().flatMap(systemChannel -> reply(systemChannel, welcome))
+				.onErrorResume(this::reportError)
+				.subscribeOn(lane);
 	}
 	
 	private Routine parseRoutine(String message) {
@@ -585,24 +607,28 @@ public class GuildHandler {
 		}
 	}
 	
-	private static String verifyRoutine(Routine newRoutine) {
+	private Mono<String> verifyRoutine(Routine newRoutine) {
 		String verify = "Creating new routine with trigger(s):";
 		for(String s : newRoutine.getTriggers())
 		{
 			verify += " " + s;
 		}
 		verify += "\nwith check for phrase value of: " + newRoutine.getCheckPhraseExists() + "\nwith users:";
-		//map a Map<UserId, GuildId> to List<Username>
-		List<String> usernames = newRoutine.getUsers().entrySet().stream().map(id -> client.getUserById(Snowflake.of(id.getKey())).block().asMember(Snowflake.of(id.getValue())).block().getUsername()).collect(Collectors.toList());
-		for(String s : usernames)
-		{
-			verify += " " + s;
-		}
-		verify += "\nwith text to speech value of: " + newRoutine.getTTS() + "\nwith response: " + newRoutine.getResponse();
-		return verify;
+		String header = verify;
+		//map a Map<UserId, GuildId> to List<Username>, keeping the order of the map
+		return nameCache.getMemberNames(client, newRoutine.getUsers())
+				.collectList()
+				.map(usernames -> {
+					String message = header;
+					for(String s : usernames)
+					{
+						message += " " + s;
+					}
+					return message + "\nwith text to speech value of: " + newRoutine.getTTS() + "\nwith response: " + newRoutine.getResponse();
+				});
 	}
 	
-	private static Reminder parseReminder(String message, Long userId, MessageChannel channel) {
+	private static Reminder parseReminder(String message, long userId, long channelId) {
 		try
 		{
 			Pattern pattern = Pattern.compile("\\d{4}"); //find the year, the last part of the date
@@ -617,442 +643,648 @@ public class GuildHandler {
 				throw new DataFormatException();
 			}
 			DateTimeFormatter formatter = DateTimeFormatter.ofPattern("KK:mm a MMMM dd, yyyy");
-			Reminder newReminder = new Reminder(message.substring(matcher.start() + 5), LocalDateTime.from(formatter.parse(date)), true, userId, channel.getId().asLong());
-			channel.createMessage("Okay, I'll remind you about \"" + newReminder.getEvent() + "\" at " + date).block();
+			//the mention setting between the date and the event is optional, and defaults to true
+			String event = message.substring(matcher.start() + 5);
+			boolean mention = true;
+			if(event.startsWith("true ")) {
+				event = event.substring(5);
+			} else if(event.startsWith("false ")) {
+				mention = false;
+				event = event.substring(6);
+			}
+			return new Reminder(event, LocalDateTime.from(formatter.parse(date)), mention, userId, channelId);
 		}
 		catch(Exception e) {
-			channel.createMessage("Sorry, I couldn't understand that date and time. The usage is :remindme: HR:MN PM MonthName dd, yyyy true/false event; hour and day must be 2 digits.").block();
+			throw new IllegalArgumentException("Sorry, I couldn't understand that date and time. The usage is :remindme: HR:MN PM MonthName dd, yyyy true/false event; hour and day must be 2 digits.");
 		}
-		return null;
 	}
 	
 	/**
-	 * 
+	 *
 	 */
-	private static void handleHelpMessage(MessageCreateEvent event, Member sender, List<Routine> routines) {
-		event.getMessage().delete();
-		PrivateChannel PM = sender.getPrivateChannel().block();
-		Properties resources = new Properties();
-		//TODO: is this the proper way of doing this? how does collaborati load application resource strings (strings with whitespace, in particular)
-		FileInputStream in;
-		try {
-			in = new FileInputStream("src/main/resources/applicationResources.txt");
-			resources.load(in);
-		} catch (Exception e) {
-			e.printStackTrace();
-			PM.createMessage("Sorry, there was an error retrieving my help message. Contact the bot author.").block();
-			return;
-		}
-		String helpMessage = resources.getProperty("helpPreString");
-		for(Routine r : routines)
-		{
-			for(String t : r.getTriggers())
+	private Mono<Void> handleHelpMessage(MessageCreateEvent event, Member sender) {
+		String helpMessage = getHelpMessage();
+		return event.getMessage().delete().onErrorResume(e -> Mono.empty())
+				.then(sender.getPrivateChannel())
+				.flatMap(PM -> reply(PM, helpMessage != null ? helpMessage : "Sorry, there was an error retrieving my help message. Contact the bot author."));
+	}
+	
+	//rendered on the first :help: after the routines change
+	private String getHelpMessage() {
+		if(helpMessage == null && resources.containsKey("helpPreString")) {
+			StringBuilder message = new StringBuilder(resources.getProperty("helpPreString"));
+			for(Routine r : routines)
 			{
-				if(t.charAt(0)==':' && t.charAt(t.length()-1)==':') helpMessage += "\n" + t;
+				for(String t : r.getTriggers())
+				{
+					if(!t.isEmpty() && t.charAt(0)==':' && t.charAt(t.length()-1)==':') message.append('\n').append(t);
+				}
 			}
+			helpMessage = message.append(resources.getProperty("helpPostString", "")).toString();
+		}
+		return helpMessage;
+	}
+	
+	private static Properties loadResources() {
+		Properties resources = new Properties();
+		try(InputStream in = GuildHandler.class.getResourceAsStream("/applicationResources.properties")) {
+			if(in == null) throw new IOException("applicationResources.properties is not on the classpath");
+			resources.load(in);
+		} catch(IOException e) {
+			logger.error("Failed to load the application resources", e);
 		}
-		helpMessage += resources.getProperty("helpPostString");
-		PM.createMessage(helpMessage).block();
+		return resources;
 	}
 	
 	/**
-	 * 
+	 *
 	 */
-	private void handleColors(Set<Role> colorRoles, MessageChannel channel) {
-		String colors = "Available colors are:\n";
-		for(Role r : colorRoles)
-		{
-			colors += r.getName();
-			colors += " ";
-			colors += r.getColor().getRed();
-			colors += " ";
-			colors += r.getColor().getGreen();
-			colors += " ";
-			colors += r.getColor().getBlue();
-			colors += "\n";
+	private Mono<Void> handleColors(MessageChannel channel) {
+		return reply(channel, getColorListing());
+	}
+	
+	//rendered on the first :colors: after the color roles change
+	private String getColorListing() {
+		if(colorListing == null) {
+			StringBuilder colors = new StringBuilder("Available colors are:\n");
+			for(Role r : colorRoles)
+			{
+				colors.append(r.getName()).append(' ')
+						.append(r.getColor().getRed()).append(' ')
+						.append(r.getColor().getGreen()).append(' ')
+						.append(r.getColor().getBlue()).append('\n');
+			}
+			//remove the last newline
+			colors.setLength(colors.length()-1);
+			colorListing = colors.toString();
 		}
-		//remove the last newline
-		channel.createMessage(colors.substring(0,colors.length()-1)).block();
+		return colorListing;
+	}
+	
+	private void addColorRole(Role role) {
+		colorRoles.add(role);
+		colorListing = null;
+	}
+	
+	private void removeColorRole(Snowflake roleId) {
+		colorRoles.removeIf(r -> r.getId().equals(roleId));
+		colorListing = null;
 	}
 	
 	/**
-	 * 
+	 *
 	 */
-	private void handleColorPermRole(String message, MessageChannel channel, Role colorPermRole) {
+	private Mono<Void> handleColorPermRole(String roleId, MessageChannel channel) {
 		//if role already exists, delete original and replace
 		//else:
-		colorPermRole = guild.getRoleById(Snowflake.of(message.substring(19))).block();
-		channel.createMessage("Set the color permission role to be " + message.substring(19)).block();
+		return guild.getRoleById(Snowflake.of(roleId))
+				.publishOn(lane)
+				.doOnNext(role -> {
+					colorPermRole = role;
+					storeColorPermRole();
+				})
+				.then(reply(channel, "Set the color permission role to be " + roleId));
 	}
 	
-	private void handleAddColor(String message, Member sender, MessageChannel channel) {
-		if(!permissionTest(sender, colorPermRole))
-		{
-			channel.createMessage("You don't have the permissions for that.").block();
-			return;
-		}
-		Scanner sc = new Scanner(message.substring(11));
-		String name = sc.next();
-		final int red, green, blue; //default discord role color
-		try
-		{
-			red = sc.nextInt();
-			green = sc.nextInt();
-			blue = sc.nextInt();
-		}
-		catch(Exception e)
-		{
-			channel.createMessage("Improper arguments.").block();
-			sc.close();
-			return;
-		}
-		sc.close();
-		for(Role r : colorRoles)
-		{
-			if(r.getName().equals(name))
+	private static Mono<Void> sendPermissionDenied(MessageChannel channel) {
+		return reply(channel, "You don't have the permissions for that.");
+	}
+	
+	private Mono<Void> handleAddColor(String arguments, Member sender, MessageChannel channel) {
+		return permissionTest(sender, colorPermRole).publishOn(lane).flatMap(permitted -> {
+			if(!permitted) return sendPermissionDenied(channel);
+			Scanner sc = new Scanner(arguments);
+			String name = sc.next();
+			final int red, green, blue; //default discord role color
+			try
 			{
-				channel.createMessage("A color with that name already exists.").block();
-				return;
+				red = sc.nextInt();
+				green = sc.nextInt();
+				blue = sc.nextInt();
 			}
-			if(r.getColor().getRed() == red && r.getColor().getGreen() == green && r.getColor().getBlue() == blue)
+			catch(Exception e)
 			{
-				channel.createMessage("There is already a color with those values.").block();
-				return;
+				sc.close();
+				return reply(channel, "Improper arguments.");
 			}
-		}
-		Role temp = guild.createRole(
-				role -> role.setName(name).setColor(new Color(red,green,blue))//TODO: .setPosition() if the default is not last
-		).block();
-		colorRoles.add(temp);
-		channel.createMessage(name + " added as a color.").block();
+			sc.close();
+			for(Role r : colorRoles)
+			{
+				if(r.getName().equals(name))
+				{
+					return reply(channel, "A color with that name already exists.");
+				}
+				if(r.getColor().getRed() == red && r.getColor().getGreen() == green && r.getColor().getBlue() == blue)
+				{
+					return reply(channel, "There is already a color with those values.");
+				}
+			}
+			return guild.createRole(
+					role -> role.setName(name).setColor(new Color(red,green,blue))//TODO: .setPosition() if the default is not last
+			).publishOn(lane).flatMap(role -> {
+				addColorRole(role);
+				storeColorRole(role);
+				return reply(channel, name + " added as a color.");
+			}).then();
+		});
 	}
 	
-	//return true if a role has at least one member
-	private static boolean roleHasMember(Guild guild, Role role) {
-		for(Member m : guild.getMembers().collectList().block()) {
-			if(m.getRoleIds().contains(role.getId())) return true;
-		}
-		return false;
+	//emits true if a role has at least one member, from the role index once it is seeded
+	private Mono<Boolean> roleHasMember(Role role) {
+		if(roleIndex.isSeeded()) return Mono.just(roleIndex.getMemberCount(role.getId()) > 0);
+		return guild.getMembers().any(m -> m.getRoleIds().contains(role.getId()));
 	}
 	
-	private void handleRemoveColor(String message, Member sender, MessageChannel channel) {
-		if(!permissionTest(sender, colorPermRole))
-		{
-			channel.createMessage("You don't have the permissions for that.").block();
-			return;
-		}
-		Role role = guild.getRoleById(Snowflake.of(message.substring(14))).block();
-		if(roleHasMember(guild, role))
-		{
-			channel.createMessage("Cannot delete this role, at least one user is still assigned to it.").block();
-			return;
-		}
-		role.delete();
-		channel.createMessage("Color " + message.substring(14) + " deleted.").block();
-		colorRoles.remove(role);
-		//channel.createMessage("No color by the name " + message.substring(14) + "found.");
+	private Mono<Void> handleRemoveColor(String roleId, Member sender, MessageChannel channel) {
+		return permissionTest(sender, colorPermRole).publishOn(lane).flatMap(permitted -> {
+			if(!permitted) return sendPermissionDenied(channel);
+			return guild.getRoleById(Snowflake.of(roleId)).publishOn(lane).flatMap(role -> roleHasMember(role).flatMap(hasMember -> {
+				if(hasMember)
+				{
+					return reply(channel, "Cannot delete this role, at least one user is still assigned to it.");
+				}
+				return role.delete()
+						.publishOn(lane)
+						.then(Mono.fromRunnable(() -> {
+							removeColorRole(role.getId());
+							unstore(colorRoleRecord(role));
+						}))
+						.then(reply(channel, "Color " + roleId + " deleted."));
+			}));
+			//channel.createMessage("No color by the name " + roleId + "found.");
+		});
 	}
 	
-	private void handleSetColor(String message, Member sender, MessageChannel channel) {
-		if(!permissionTest(sender, colorPermRole))
-		{
-			channel.createMessage("You don't have the permissions for that.").block();
-			return;
-		}
-		Role color = guild.getRoleById(Snowflake.of(message.substring(14))).block();
-		if(sender.getRoleIds().contains(color.getId()))
-		{
-			sender.removeRole(color.getId());
-			channel.createMessage("User color removed.").block();
-		} else {
-			sender.addRole(color.getId());
-			channel.createMessage("User color set to " + color + ".").block();
-		}
+	private Mono<Void> handleSetColor(String roleId, Member sender, MessageChannel channel) {
+		return permissionTest(sender, colorPermRole).publishOn(lane).flatMap(permitted -> {
+			if(!permitted) return sendPermissionDenied(channel);
+			return guild.getRoleById(Snowflake.of(roleId)).flatMap(color -> {
+				if(sender.getRoleIds().contains(color.getId()))
+				{
+					return sender.removeRole(color.getId()).then(reply(channel, "User color removed."));
+				} else {
+					return sender.addRole(color.getId()).then(reply(channel, "User color set to " + color.getName() + "."));
+				}
+			}).then();
+		});
 	}
 	
-	private static void handleTaunts(MessageCreateEvent event, Member sender) {
-		PrivateChannel PM = sender.getPrivateChannel().block();
-		try
-		{
-			File[] taunts = (new File("src/main/resources/taunts/")).listFiles();
-			String temp = "Available taunts are:\n";
-			for(File taunt : taunts)
-			{
-				temp += taunt.getName() + '\n';
-			}
-			//erase the last newline
-			PM.createMessage(temp.substring(0,temp.length()-1)).block();
-		}
-		catch(Exception e)
-		{
-			PM.createMessage("Error occurred when retrieving list of sound files.").block();
-		}
-		event.getMessage().delete();
+	private static Mono<Void> handleTaunts(MessageCreateEvent event, Member sender) {
+		//the listing is rendered once at startup, already split into messages
+		return sender.getPrivateChannel()
+				.flatMap(PM -> Flux.fromIterable(tauntCatalog.getListing())
+						.concatMap(text -> reply(PM, text))
+						.then()
+						.onErrorResume(e -> reply(PM, "Error occurred when retrieving list of sound files.")))
+				.then(event.getMessage().delete().onErrorResume(e -> Mono.empty()));
 	}
 	
-	private void handleJoin(Member sender, MessageChannel channel) {
-		audioPlayer = audioPlayerManager.createPlayer();
-		audioPlayer.addListener(trackScheduler);
-		
-		//already joined check
-		if(sender.getVoiceState().flatMap(voiceState -> voiceState.getChannel()).block().equals(client.getMemberById(guild.getId(), client.getSelfId().get()).flatMap(self -> self.getVoiceState().flatMap(voiceState -> voiceState.getChannel())).block())) {
-			channel.createMessage("I've already joined your call.").block();
-			return;
-		} else {
-			connection = sender.getVoiceState().block().getChannel().block().join(voiceChannel -> voiceChannel.setProvider(lavaPlayer)).block();
-		}
+	private Mono<Void> handleJoin(Member sender, MessageChannel channel) {
+		return sender.getVoiceState().flatMap(VoiceState::getChannel)
+				.map(Optional::of).defaultIfEmpty(Optional.empty())
+				.flatMap(voiceChannel -> {
+					if(!voiceChannel.isPresent()) {
+						return reply(channel, "You need to be in a voice channel for me to join you.");
+					}
+					//already joined check
+					return client.getMemberById(guild.getId(), client.getSelfId().get())
+							.flatMap(Member::getVoiceState)
+							.map(selfState -> selfState.getChannelId().map(voiceChannel.get().getId()::equals).orElse(false))
+							.defaultIfEmpty(false)
+							.publishOn(lane)
+							.flatMap(joined -> {
+								if(joined) {
+									return reply(channel, "I've already joined your call.");
+								}
+								//the player and queue are kept from the last join unless they went idle
+								if(audio == null) openAudio();
+								GuildAudio joining = audio;
+								return voiceChannel.get().join(spec -> spec.setProvider(joining.getProvider()))
+										.publishOn(lane)
+										.flatMap(newConnection -> {
+											if(joining == audio) {
+												joining.setConnection(newConnection, voiceChannel.get().getId());
+												return Mono.<Void>empty();
+											}
+											//released while joining
+											return Mono.fromRunnable(newConnection::disconnect).subscribeOn(blockingScheduler).then();
+										});
+							});
+				});
 	}
 	
-	private void handleLeave(MessageChannel channel) {
-		if(connection == null) {
-			channel.createMessage("I'm not currently in any voice channels.").block();
-		} else {
-			connection.disconnect();
-			connection = null;
+	private Mono<Void> handleLeave(MessageChannel channel) {
+		if(!inCall()) {
+			return reply(channel, "I'm not currently in any voice channels.");
 		}
+		//disconnecting closes the voice gateway synchronously
+		VoiceConnection leaving = audio.leave();
+		return Mono.fromRunnable(leaving::disconnect).subscribeOn(blockingScheduler).then();
 	}
 	
-	private void handlePlay(String message, MessageChannel channel) {
-		//ensure the audio source parameter is provided
-		try {
-			message.substring(7);
-		} catch(IndexOutOfBoundsException e) {
-			channel.createMessage("No argument provided. Provide a taunt name or link after the :play: command.").block();
-			return;
-		}
-		
+	private void openAudio() {
+		audio = new GuildAudio(pcmAudioPlayerManager, mailbox, maxMixerVoices, prefetchDepth, maxQueuedTracks);
+		idleCheck = Flux.interval(AUDIO_IDLE_CHECK)
+				.publishOn(lane)
+				.subscribe(tick -> {
+					if(audio != null && audio.isIdle(audioIdleMillis)) releaseAudio("nothing has played for " + audioIdleMillis / 1000 + " seconds");
+				});
+	}
+	
+	//disconnects and destroys every player, the next join starts over
+	private void releaseAudio(String reason) {
+		idleCheck.dispose();
+		Runnable release = audio.release();
+		audio = null;
+		logWithGuildId(LoggerLevel.INFO, "Released the audio state, " + reason);
+		Mono.fromRunnable(release).subscribeOn(blockingScheduler).subscribe();
+	}
+	
+	private Mono<Void> handlePlay(String argument, MessageChannel channel) {
 		String source;
 		final boolean link;
 		
 		//determine whether the source is a file or link
-		if(message.contains("http")) {
-			source = message.substring(7);
+		if(argument.contains("http")) {
+			source = argument;
 			link = true;
 		} else {
-			source = "taunts/" + message.substring(7) + ".mp3";
+			TauntCatalog.Taunt taunt = tauntCatalog.get(argument);
+			if(taunt == null) {
+				return reply(channel, "This looked like a file. No matching audio files for " + argument + " were found.");
+			}
+			//cached taunts are mixed in from their pre-encoded frames
+			if(opusFrameCache != null) {
+				return opusFrameCache.get(taunt)
+						.publishOn(lane)
+						.flatMap(frames -> !inCall() ? sendNotInCall(channel) : audio.addVoice(frames.cursor()) ? Mono.<Void>empty() : sendMixerFull(channel))
+						.onErrorResume(e -> reply(channel, "Error: " + e.getMessage()));
+			}
+			source = taunt.getFile().getAbsolutePath();
 			link = false;
 		}
 		
-		audioPlayerManager.loadItem(source, new AudioLoadResultHandler() {
-			@Override
-			public void trackLoaded(AudioTrack track) {
-				trackScheduler.addTrack(track);
-			}
-
-			@Override
-			public void playlistLoaded(AudioPlaylist playlist) {
-				for(AudioTrack track : playlist.getTracks()) {
-					trackScheduler.addTrack(track);
-				}
+		//audio behind links is played from its copy on the disk once it has one. Until then the link is streamed right away while the copy downloads in the background
+		File local = link && remoteAudioCache != null ? remoteAudioCache.getCached(source) : null;
+		if(link && remoteAudioCache != null && local == null) {
+			remoteAudioCache.fetch(source).subscribe(
+					file -> {},
+					error -> logWithGuildId(LoggerLevel.DEBUG, "Caching " + source + " failed:\n" + error.getMessage()));
+		}
+		String resolved = local != null ? local.getAbsolutePath() : source;
+		//sources are resolved once and every play gets its own copies of the tracks
+		return trackCache.resolve(resolved, link).publishOn(lane).flatMap(resolution -> {
+			if(!inCall()) {
+				return sendNotInCall(channel);
 			}
-
-			@Override
-			public void noMatches() {
+			if(resolution.isNoMatches()) {
 				String response = "This looked like a ";
 				if(link) {
 					response += "link. No acceptable audio source was found.";
 				} else {
-					response += "file. No matching audio files for " + source + " were found.";
+					response += "file. No matching audio files for " + argument + " were found.";
 				}
-				channel.createMessage(response).block();
+				return reply(channel, response);
 			}
-			
-			@Override
-			public void loadFailed(FriendlyException e) {
-				channel.createMessage("Error: " + e.getMessage()).block();
+			if(resolution.getError() != null) {
+				return reply(channel, "Error: " + resolution.getError());
+			}
+			if(link) {
+				//playlists are copied a few tracks at a time as they play
+				int queued = audio.addTracks(resolution);
+				if(queued == 0) {
+					return reply(channel, "The queue is full, wait for some of it to play.");
+				}
+				if(queued < resolution.size()) {
+					return reply(channel, "The queue is full, only " + queued + " of " + resolution.size() + " tracks were queued.");
+				}
+				return Mono.<Void>empty();
 			}
+			for(AudioTrack track : resolution.getTracks()) {
+				if(!audio.addVoice(track)) {
+					//taunts play on a player of their own, mixed in alongside everything else
+					return sendMixerFull(channel);
+				}
+			}
+			return Mono.<Void>empty();
 		});
 	}
 	
-	private void handleSkip(MessageChannel channel) {
-		if(audioPlayer.getPlayingTrack() != null) {
-			audioPlayer.stopTrack();
-			AudioTrack next = trackQueue.poll();
-			if(next != null) {
-				audioPlayer.playTrack(next);
-			}
-			
-		} else {
-			channel.createMessage("I'm not currently playing anything.").block();
+	private boolean inCall() {
+		return audio != null && audio.getConnection() != null;
+	}
+	
+	private static Mono<Void> sendNotInCall(MessageChannel channel) {
+		return reply(channel, "I need to join a call first, use :join:.");
+	}
+	
+	private static Mono<Void> sendMixerFull(MessageChannel channel) {
+		return reply(channel, "Too many sounds are already playing, wait for one to finish.");
+	}
+	
+	private Mono<Void> handleSkip(MessageChannel channel) {
+		//a track that failed to load leaves nothing playing, but the queue behind it can still be skipped to
+		if(audio == null || (!audio.isPlaying() && audio.getQueuedCount() == 0)) {
+			return reply(channel, "I'm not currently playing anything.");
 		}
+		audio.skip();
+		return Mono.empty();
 	}
 	
 	//usage: :remindme: HR:MN PM MonthName dd, yyyy true/false event; hour and day must be 2 digits, time zone must be US Central
-	private void handleAddReminder(String message, Member sender, MessageChannel channel) {
+	private Mono<Void> handleAddReminder(String message, long userId, MessageChannel channel) {
+		Reminder newReminder;
 		try {
-			Reminder newReminder = parseReminder(message, sender.getId().asLong(), channel);
-			//TODO: NULL CHECK!
-			reminders.add(newReminder);
-			storeReminder(newReminder);
+			newReminder = parseReminder(message, userId, channel.getId().asLong());
 		} catch(IllegalArgumentException e) {
-			channel.createMessage(e.getMessage()).block();
+			return reply(channel, e.getMessage());
 		}
+		reminders.add(newReminder);
+		reminderScheduler.schedule(newReminder, remindersDue);
+		storeReminder(newReminder);
+		return reply(channel, "Okay, I'll remind you about \"" + newReminder.getEvent() + "\" at " + DateTimeFormatter.ofPattern("KK:mm a MMMM dd, yyyy").format(newReminder.getTime()));
 	}
-
+	
+	private void addRoutine(Routine routine) {
+		routines.add(routine);
+		triggerIndex.add(routine);
+		helpMessage = null;
+	}
+	
 	//usage: :addnew: :triggers: true/false users true/false response
-	private void handleAddRoutine(String message, MessageChannel channel) {
+	private Mono<Void> handleAddRoutine(String message, MessageChannel channel) {
+		Routine newRoutine;
 		try {
-			Routine newRoutine = parseRoutine(message);
-			routines.add(newRoutine);
-			storeRoutine(newRoutine);
+			newRoutine = parseRoutine(message);
 		} catch(Exception e) {
-			channel.createMessage(e.getMessage()).block();
+			return reply(channel, e.getMessage());
+		}
+		addRoutine(newRoutine);
+		storeRoutine(newRoutine);
+		return verifyRoutine(newRoutine)
+				.flatMap(text -> reply(channel, text))
+				.then();
+	}
+	
+	//called on the reminder scheduler's thread, so the reminders are handed to the guild's mailbox
+	private void remindersDue(List<Reminder> due) {
+		mailbox.execute(() -> {
+			for(Reminder reminder : due) {
+				reminders.remove(reminder);
+				unstore(reminderRecord(reminder));
+			}
+			deliverReminders(due).subscribe();
+		});
+	}
+	
+	//each channel is resolved once and gets one combined message, channels are sent to concurrently
+	private Mono<Void> deliverReminders(List<Reminder> due) {
+		Map<Long, List<Reminder>> byChannel = new LinkedHashMap<Long, List<Reminder>>();
+		for(Reminder reminder : due) {
+			byChannel.computeIfAbsent(reminder.getChannelId(), channelId -> new ArrayList<Reminder>()).add(reminder);
 		}
+		return Flux.fromIterable(byChannel.values())
+				.flatMap(group -> client.getChannelById(group.get(0).getChannelSnowflake())
+						.ofType(MessageChannel.class)
+						.flatMapMany(channel -> reminderLines(group)
+								.flatMapIterable(GuildHandler::combineReminders)
+								.concatMap(text -> reply(channel, text)))
+						.then()
+						.onErrorResume(this::reportError), REMINDER_DELIVERY_CONCURRENCY)
+				.then();
 	}
 	
-	private static void sendGuildRequirementMessage(MessageChannel channel) {
-		channel.createMessage("This message must be used inside a specific Discord guild.").block();
+	//the line of each reminder, prefixed with the username of whoever set it if they asked to be mentioned. Names come from the cache, so a batch fetches each user at most once
+	private Mono<List<String>> reminderLines(List<Reminder> group) {
+		return Flux.fromIterable(group)
+				.flatMapSequential(reminder -> !reminder.getMention() ? Mono.just(reminder.getEvent())
+						: nameCache.getUsername(client, reminder.getUserSnowflake())
+								.map(username -> username + ", " + reminder.getEvent())
+								//a user that can't be found doesn't cost the reminder
+								.defaultIfEmpty(reminder.getEvent()))
+				.collectList();
 	}
-
-	/*
-		Handler check sequence:
-		help message?
-		view colors?
-		set color role message from me?
-		add color?
-		removecolor?
-		set color?
-		move someone in queue channel?
-		move all in queue channel?
-		join voice channel?
-		leave voice channel?
-		select taunt?
-		play taunt?
-		create reminder?
-		add a new trigger?
-		check for trigger
-		
-		new sequence of most likely order:
-		help > play taunt > join/leave voice channel > queue channel > colors > add new thing > general trigger check
-	*/
-	public void handle(MessageCreateEvent event)
+	
+	//the lines are split into messages under Discord's length limit
+	private static List<String> combineReminders(List<String> lines) {
+		List<String> messages = new ArrayList<String>();
+		StringBuilder message = new StringBuilder();
+		for(String line : lines) {
+			if(message.length() > 0 && message.length() + 1 + line.length() > OutboundQueue.MAX_MESSAGE_LENGTH) {
+				messages.add(message.toString());
+				message.setLength(0);
+			}
+			if(message.length() > 0) message.append('\n');
+			message.append(line);
+		}
+		if(message.length() > 0) messages.add(message.toString());
+		return messages;
+	}
+	
+	//replies go through the outbound queue, which merges them and keeps each channel under its rate limit
+	private static Mono<Void> reply(MessageChannel channel, String text) {
+		return Mono.defer(() -> outbound.send(channel, text));
+	}
+	
+	private static Mono<Void> reply(MessageChannel channel, String text, boolean tts) {
+		return Mono.defer(() -> outbound.send(channel, text, tts));
+	}
+	
+	private static Mono<Void> sendGuildRequirementMessage(MessageChannel channel) {
+		return reply(channel, "This message must be used inside a specific Discord guild.");
+	}
+	
+	/**
+	 * Checks a command's metadata against the message it was sent in, parses its arguments, then executes it
+	 */
+	private Mono<Void> dispatch(Command command, MessageCreateEvent event, String message, String token, Member sender, MessageChannel channel, boolean isDM) {
+		if(command.isGuildOnly() && isDM) {
+			return sendGuildRequirementMessage(channel);
+		}
+		//TODO: change to some user-defined role rather than the owner
+		Mono<Boolean> permitted = !command.isAdminOnly() ? Mono.just(true) : isDM ? Mono.just(false) : permissionTest(sender, adminRole);
+		return permitted.publishOn(lane).flatMap(allowed -> {
+			if(!allowed) return sendPermissionDenied(channel);
+			String arguments;
+			try {
+				arguments = command.getParser().parse(message.substring(token.length()).trim());
+			} catch(IllegalArgumentException e) {
+				return reply(channel, e.getMessage());
+			}
+			return command.getAction().execute(this, new CommandContext(event, message, arguments, sender, channel));
+		});
+	}
+	
+	//catch-all error handler, PMs me the details
+	private Mono<Void> reportError(Throwable e) {
+		logWithGuildId(LoggerLevel.ERROR, "Error occurred while handling an event: " + e);
+		if(authorPM == null) return Mono.empty();
+		//queued without waiting for it to be sent
+		authorPM.subscribe(channel -> outbound.send(channel, "Error occurred in guild " + guild.getName() + " with message: " + e.getMessage()));
+		return Mono.empty();
+	}
+	
+	/**
+	 * Handles a message sent in this guild. Nothing here blocks: replies are composed into the returned Mono, and work that can only be done by blocking runs on the blocking scheduler.
+	 * The handling starts in the guild's mailbox, after every message received before it, once the guild is hydrated.
+	 * @param event The event for the message
+	 * @return The completion of every reply to the message
+	 */
+	public Mono<Void> handle(MessageCreateEvent event)
 	{
-		try {
+		return hydration.then(Mono.defer(() -> handleMessage(event)).subscribeOn(lane));
+	}
+	
+	/**
+	 * Handles a change to someone's voice state in this guild, releasing the audio state when everyone else has left Poonani's call.
+	 * The handling runs in the guild's mailbox.
+	 * @param event The event for the voice state
+	 * @return The completion of the handling
+	 */
+	public Mono<Void> handle(VoiceStateUpdateEvent event)
+	{
+		return Mono.defer(() -> handleVoiceState(event)).subscribeOn(lane);
+	}
+	
+	private Mono<Void> handleVoiceState(VoiceStateUpdateEvent event) {
+		if(audio == null || audio.getChannelId() == null) return Mono.empty();
+		Snowflake channelId = audio.getChannelId();
+		//only someone leaving Poonani's channel can empty it
+		boolean left = event.getOld().flatMap(VoiceState::getChannelId).map(channelId::equals).orElse(false)
+				&& !event.getCurrent().getChannelId().map(channelId::equals).orElse(false);
+		if(!left) return Mono.empty();
+		Snowflake selfId = client.getSelfId().get();
+		return client.getChannelById(channelId)
+				.ofType(VoiceChannel.class)
+				.flatMapMany(VoiceChannel::getVoiceStates)
+				.any(state -> !state.getUserId().equals(selfId))
+				.publishOn(lane)
+				.doOnNext(occupied -> {
+					if(!occupied && audio != null && channelId.equals(audio.getChannelId())) releaseAudio("everyone left the call");
+				})
+				.then();
+	}
+	
+	/**
+	 * Records a new member's roles in the role index
+	 * @param event The event for the member
+	 * @return The completion of the update
+	 */
+	public Mono<Void> index(MemberJoinEvent event)
+	{
+		return Mono.<Void>fromRunnable(() -> {
+			roleIndex.putMember(event.getMember().getId(), event.getMember().getRoleIds());
+			//they may have been remembered as not being a member
+			nameCache.invalidate(guild.getId(), event.getMember().getId());
+		}).subscribeOn(lane);
+	}
+	
+	/**
+	 * Forgets a member that left in the role index
+	 * @param event The event for the member
+	 * @return The completion of the update
+	 */
+	public Mono<Void> index(MemberLeaveEvent event)
+	{
+		return Mono.<Void>fromRunnable(() -> {
+			roleIndex.removeMember(event.getUser().getId());
+			roleHierarchy.removeMember(event.getUser().getId());
+		}).subscribeOn(lane);
+	}
+	
+	/**
+	 * Records a member's new roles in the role index
+	 * @param event The event for the member
+	 * @return The completion of the update
+	 */
+	public Mono<Void> index(MemberUpdateEvent event)
+	{
+		return Mono.<Void>fromRunnable(() -> {
+			roleIndex.putMember(event.getMemberId(), event.getCurrentRoles());
+			roleHierarchy.removeMember(event.getMemberId());
+			nameCache.invalidate(guild.getId(), event.getMemberId());
+		}).subscribeOn(lane);
+	}
+	
+	/**
+	 * Adds a new role to the role hierarchy
+	 * @param event The event for the role
+	 * @return The completion of the update
+	 */
+	public Mono<Void> index(RoleCreateEvent event)
+	{
+		return Mono.<Void>fromRunnable(() -> roleHierarchy.putRole(event.getRole())).subscribeOn(lane);
+	}
+	
+	/**
+	 * Records a changed role in the role hierarchy, and replaces it if it is a color role so :colors: shows its new name and color
+	 * @param event The event for the role
+	 * @return The completion of the update
+	 */
+	public Mono<Void> index(RoleUpdateEvent event)
+	{
+		return Mono.<Void>fromRunnable(() -> {
+			Role role = event.getCurrent();
+			roleHierarchy.putRole(role);
+			if(colorRoles.stream().anyMatch(r -> r.getId().equals(role.getId()))) {
+				removeColorRole(role.getId());
+				addColorRole(role);
+			}
+		}).subscribeOn(lane);
+	}
+	
+	/**
+	 * Forgets a deleted role in the role index and hierarchy, and as a color role if it was one
+	 * @param event The event for the role
+	 * @return The completion of the update
+	 */
+	public Mono<Void> index(RoleDeleteEvent event)
+	{
+		return Mono.<Void>fromRunnable(() -> {
+			roleIndex.removeRole(event.getRoleId());
+			roleHierarchy.removeRole(event.getRoleId());
+			event.getRole().ifPresent(role -> {
+				if(colorRoles.stream().anyMatch(r -> r.getId().equals(role.getId()))) {
+					removeColorRole(role.getId());
+					unstore(colorRoleRecord(role));
+				}
+			});
+		}).subscribeOn(lane);
+	}
+	
+	private Mono<Void> handleMessage(MessageCreateEvent event)
+	{
+		Message received = event.getMessage();
 		//All of Discord's automated messages trigger this event, skip unless they are actually sent by a user
-		if(!event.getMessage().getType().equals(Message.Type.DEFAULT)) return;
-			
+		if(!received.getType().equals(Message.Type.DEFAULT)) return Mono.empty();
+		
 		//TODO: parameterize this check as a boolean to allow poonani to run functional tests on himself?
 		//Ensure Poonani or other bots do not trigger him
-		if(event.getMessage().getAuthor().get().isBot()) return;
-
-		MessageChannel channel = event.getMessage().getChannel().block();
-		boolean isDM = !(channel instanceof GuildMessageChannel);
-		
-		String message = event.getMessage().getContent().get();
-		
-		Member sender;
-		if(isDM) {
-			sender = null;
-		} else {
-			sender = event.getMember().get();
-		}
-		
-//		//TODO: change to some user-defined role rather than the owner
-//		boolean isAdmin = !isDM && permissionTest(sender, adminRole);
-//		
-//		if(message.equals(":help:") || message.equals(":?:"))
-//		{
-//			handleHelpMessage(event, sender, routines);
-//			return;
-//		}
-//		
-//		if(message.startsWith(":colors:"))
-//		{
-//			if(isDM) sendGuildRequirementMessage(channel);
-//			else handleColors(colorRoles, channel);
-//			return;
-//		}
-//		
-//		if(message.startsWith(":setcolorpermrole:") && isAdmin)
-//		{
-//			if(isDM) sendGuildRequirementMessage(channel);
-//			else handleColorPermRole(message, channel, colorPermRole);
-//			return;
-//		}
-//		
-//		//TODO: set admin role
-//		//TODO: set color perm role
-//		
-//		//TODO: dupe check
-//		if(message.startsWith(":addcolor:"))
-//		{
-//			if(isDM) sendGuildRequirementMessage(channel);
-//			else handleAddColor(message, sender, channel);
-//			return;
-//		}
-//		
-//		if(message.startsWith(":removecolor:"))
-//		{
-//			if(isDM) sendGuildRequirementMessage(channel);
-//			else handleRemoveColor(message, sender, (GuildMessageChannel) channel);
-//			return;
-//		}
-//		
-//		if(message.startsWith(":setcolor:"))
-//		{
-//			if(isDM) sendGuildRequirementMessage(channel);
-//			else handleSetColor(message, sender, (GuildMessageChannel) channel);
-//			return;
-//		}
-//		
-//		if(message.startsWith(":taunts:"))
-//		{
-//			handleTaunts(event, sender);
-//			return;
-//		}
-		
-		//also check leave and skip when there's nothing playing
-		if(message.startsWith(":join:"))
-		{
-			if(isDM) sendGuildRequirementMessage(channel);
-			else handleJoin(sender, channel);
-			return;
-		}
+		if(received.getAuthor().map(User::isBot).orElse(true)) return Mono.empty();
 		
-		if(message.startsWith(":leave:"))
-		{
-			if(isDM) sendGuildRequirementMessage(channel);
-			else handleLeave(channel);
-			return;
-		}
+		//messages with only attachments or embeds have no content
+		String message = received.getContent().orElse("");
+		boolean isDM = !event.getGuildId().isPresent();
+		Member sender = event.getMember().orElse(null);
 		
-		if(message.startsWith(":play:"))
+		//commands are looked up by their leading :token:, anything else is checked for routine triggers
+		String token = CommandRegistry.extractToken(message);
+		Command command = commands.get(token);
+		if(command != null)
 		{
-			if(isDM) sendGuildRequirementMessage(channel);
-			else handlePlay(message, channel);
-			return;
+			return received.getChannel()
+					.flatMap(channel -> dispatch(command, event, message, token, sender, channel, isDM))
+					.onErrorResume(this::reportError);
 		}
 		
-		if(message.startsWith(":skip:"))
-		{
-			if(isDM) sendGuildRequirementMessage(channel);
-			else handleSkip(channel);
-			return;
-		}
-//		
-//		if(message.startsWith(":remindme:"))
-//		{
-//			handleAddReminder(message, sender, (GuildMessageChannel) channel);
-//			return;
-//		}
-//		
-//		//TODO: dupe check
-//		if(message.startsWith(":addnew:") && isAdmin)
-//		{
-//			if(isDM) sendGuildRequirementMessage(channel);
-//			else handleAddRoutine(message, (GuildMessageChannel) channel);
-//			return;
-//		}
-//		
-//		//the message has no known commands, check for routine triggers
-//		for(Routine r : routines)
-//		{
-//			if(r.findTrigger(message, sender)) channel.createMessage(ttsMessage -> ttsMessage.setContent(r.getResponse()).setTts(r.getTTS())).block();
-//		}
-		}
-		catch(Exception e) {
-			//catch-all error handler, PMs me the details
-			authorPM.createMessage("Error occurred in guild " + guild.getName() + " with message: " + e.getMessage()).block();
-		}
+		//the message has no known commands, check for routine triggers in a single pass over the message
+		List<Routine> triggered = triggerIndex.findRoutines(new MessageAnalysis(message), sender);
+		if(triggered.isEmpty()) return Mono.empty();
+		return received.getChannel()
+				//queued in order, the outbound queue merges the responses into as few messages as it can
+				.flatMapMany(channel -> Flux.fromIterable(triggered)
+						.flatMap(r -> reply(channel, r.getResponse(), r.getTTS())))
+				.then()
+				.onErrorResume(this::reportError);
 	}
-}
\ No newline at end of file
+}
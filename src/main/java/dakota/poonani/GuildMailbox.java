@@ -0,0 +1,92 @@
+package dakota.poonani;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A serialized execution lane for a single guild.
+ * Tasks submitted to one mailbox run one at a time in the order they were submitted, while the mailboxes of different guilds share the threads of one pool and run in parallel.
+ * A mailbox gives its thread back after a batch of tasks, so a busy guild can't starve the others.
+ */
+public class GuildMailbox implements Executor
+{
+	/*
+	 * Fields
+	 */
+	
+	private static Logger logger = LoggerFactory.getLogger(GuildMailbox.class);
+	
+	//tasks run before the mailbox reschedules itself behind the other guilds
+	private static final int BATCH_SIZE = 32;
+	
+	private final Executor pool;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Creates a mailbox
+	 * @param pool The pool shared by every guild's mailbox
+	 */
+	public GuildMailbox(Executor pool)
+	{
+		this.pool = pool;
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets the number of tasks waiting to run
+	 * @return The number of tasks waiting to run
+	 */
+	public int getPendingCount() {
+		return tasks.size();
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Queues a task to run after every task already submitted to this mailbox
+	 * @param task The task to run
+	 */
+	@Override
+	public void execute(Runnable task) {
+		tasks.add(task);
+		schedule();
+	}
+	
+	private void schedule() {
+		if(scheduled.compareAndSet(false, true)) {
+			pool.execute(this::drain);
+		}
+	}
+	
+	private void drain() {
+		try {
+			Runnable task;
+			for(int i = 0; i < BATCH_SIZE && (task = tasks.poll()) != null; i++) {
+				try {
+					task.run();
+				} catch(Throwable e) {
+					logger.error("Task failed in guild mailbox", e);
+				}
+			}
+		} finally {
+			scheduled.set(false);
+			//tasks may have been added after the last poll, or the batch may have run out
+			if(!tasks.isEmpty()) schedule();
+		}
+	}
+}
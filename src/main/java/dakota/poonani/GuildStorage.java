@@ -0,0 +1,32 @@
+package dakota.poonani;
+
+import java.util.List;
+
+/**
+ * Where a guild's routines, reminders, roles and settings are stored
+ */
+public interface GuildStorage
+{
+	/**
+	 * Stores a record, replacing any record with the same identity
+	 * @param record The record to store
+	 */
+	void put(StorageRecord record);
+	
+	/**
+	 * Removes the record with the same identity as record, if there is one
+	 * @param record The record to remove
+	 */
+	void remove(StorageRecord record);
+	
+	/**
+	 * Gets every stored record
+	 * @return Every stored record, in the order they were first stored
+	 */
+	List<StorageRecord> load();
+	
+	/**
+	 * Makes every stored record durable and releases the storage
+	 */
+	void close();
+}
@@ -0,0 +1,288 @@
+package dakota.poonani;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores a guild's records on the local disk as an append-only journal of puts and removes.
+ * Every record is also kept in memory, so loading never touches the disk after startup.
+ * Once the journal holds enough entries that aren't live anymore, the live records are compacted into a snapshot and the journal starts over.
+ * A torn entry at the end of the journal, e.g. from a crash during a write, is discarded when the journal is replayed.
+ */
+public class JournalStorage implements GuildStorage
+{
+	/*
+	 * Fields
+	 */
+	
+	private static Logger logger = LoggerFactory.getLogger(JournalStorage.class);
+	
+	/**
+	 * When appended entries are forced to the disk
+	 */
+	public enum FsyncPolicy {
+		//after every entry, nothing acknowledged is ever lost
+		ALWAYS,
+		//at most once per FSYNC_INTERVAL_MILLIS, and at the latest FSYNC_INTERVAL_MILLIS after a write, at most that much is lost if the machine goes down
+		INTERVAL,
+		//left to the operating system
+		NEVER
+	}
+	
+	private static final String JOURNAL_FILE = "journal.log";
+	private static final String SNAPSHOT_FILE = "snapshot.dat";
+	private static final String SNAPSHOT_TEMP_FILE = "snapshot.tmp";
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+	private static final long FSYNC_INTERVAL_MILLIS = 1000;
+	//the journal is compacted once it holds this many entries more than there are live records
+	private static final int COMPACTION_THRESHOLD = 256;
+	//forces journals that were written to but not synced once their interval is up, shared by every guild
+	private static final ScheduledExecutorService fsyncTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "poonani-journal-fsync");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private final File directory;
+	private final FsyncPolicy fsyncPolicy;
+	private final Map<String, StorageRecord> records = new LinkedHashMap<String, StorageRecord>();
+	private FileOutputStream journalFile;
+	private DataOutputStream journal;
+	private int journalEntries;
+	private long lastFsync;
+	private boolean unsynced;
+	private boolean fsyncScheduled;
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Opens the storage in directory, creating it if necessary, and recovers every record from its snapshot and journal
+	 * @param directory The directory holding this guild's snapshot and journal
+	 * @param fsyncPolicy When appended entries are forced to the disk
+	 * @throws IOException If the directory can't be created or read
+	 */
+	public JournalStorage(File directory, FsyncPolicy fsyncPolicy) throws IOException
+	{
+		this.directory = directory;
+		this.fsyncPolicy = fsyncPolicy;
+		Files.createDirectories(directory.toPath());
+		//a snapshot that was never moved into place is incomplete
+		Files.deleteIfExists(new File(directory, SNAPSHOT_TEMP_FILE).toPath());
+		readSnapshot();
+		long validLength = replayJournal();
+		journalFile = new FileOutputStream(new File(directory, JOURNAL_FILE), true);
+		if(journalFile.getChannel().size() > validLength) {
+			logger.warn("Discarding a torn entry at the end of " + new File(directory, JOURNAL_FILE));
+			journalFile.getChannel().truncate(validLength);
+		}
+		journal = new DataOutputStream(new BufferedOutputStream(journalFile));
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Returns whether entries were written that haven't been forced to the disk yet
+	 * @return Whether there are unsynced writes
+	 */
+	public synchronized boolean hasUnsyncedWrites() {
+		return unsynced;
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	@Override
+	public synchronized void put(StorageRecord record) {
+		records.put(record.getId(), record);
+		append(PUT, record);
+	}
+	
+	@Override
+	public synchronized void remove(StorageRecord record) {
+		if(records.remove(record.getId()) != null) append(REMOVE, record);
+	}
+	
+	@Override
+	public synchronized List<StorageRecord> load() {
+		return new ArrayList<StorageRecord>(records.values());
+	}
+	
+	@Override
+	public synchronized void close() {
+		if(journal == null) return;
+		try {
+			journal.flush();
+			sync(System.currentTimeMillis());
+			journal.close();
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			journal = null;
+		}
+	}
+	
+	private void append(byte op, StorageRecord record) {
+		if(journal == null) throw new IllegalStateException("The storage in " + directory + " is closed");
+		try {
+			writeEntry(journal, op, record);
+			journal.flush();
+			journalEntries++;
+			unsynced = true;
+			long now = System.currentTimeMillis();
+			if(fsyncPolicy == FsyncPolicy.ALWAYS || (fsyncPolicy == FsyncPolicy.INTERVAL && now - lastFsync >= FSYNC_INTERVAL_MILLIS)) {
+				sync(now);
+			} else if(fsyncPolicy == FsyncPolicy.INTERVAL && !fsyncScheduled) {
+				//the last writes of a burst are synced even if nothing is written after them
+				fsyncScheduled = true;
+				fsyncTimer.schedule(this::scheduledSync, FSYNC_INTERVAL_MILLIS - (now - lastFsync), TimeUnit.MILLISECONDS);
+			}
+			if(journalEntries - records.size() >= COMPACTION_THRESHOLD) compact();
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private void sync(long now) throws IOException {
+		journalFile.getFD().sync();
+		lastFsync = now;
+		unsynced = false;
+	}
+	
+	private synchronized void scheduledSync() {
+		fsyncScheduled = false;
+		if(journal == null || !unsynced) return;
+		try {
+			sync(System.currentTimeMillis());
+		} catch(IOException e) {
+			logger.error("Syncing the journal in " + directory + " failed", e);
+		}
+	}
+	
+	private static void writeEntry(DataOutputStream out, byte op, StorageRecord record) throws IOException {
+		out.writeByte(op);
+		out.writeUTF(record.getType().name());
+		out.writeUTF(record.getContent());
+	}
+	
+	private static StorageRecord readEntry(DataInputStream in) throws IOException {
+		StorageRecord.Type type;
+		try {
+			type = StorageRecord.Type.valueOf(in.readUTF());
+		} catch(IllegalArgumentException e) {
+			throw new IOException("Unknown record type", e);
+		}
+		return new StorageRecord(type, in.readUTF());
+	}
+	
+	//writes every live record into a new snapshot, moves it over the old one, then starts the journal over
+	private void compact() throws IOException {
+		File temp = new File(directory, SNAPSHOT_TEMP_FILE);
+		try(FileOutputStream snapshotFile = new FileOutputStream(temp)) {
+			DataOutputStream snapshot = new DataOutputStream(new BufferedOutputStream(snapshotFile));
+			snapshot.writeInt(records.size());
+			for(StorageRecord record : records.values()) writeEntry(snapshot, PUT, record);
+			snapshot.flush();
+			snapshotFile.getFD().sync();
+		}
+		Files.move(temp.toPath(), new File(directory, SNAPSHOT_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		journal.flush();
+		journalFile.getChannel().truncate(0);
+		sync(System.currentTimeMillis());
+		logger.debug("Compacted " + journalEntries + " journal entries into a snapshot of " + records.size() + " records in " + directory);
+		journalEntries = 0;
+	}
+	
+	private void readSnapshot() throws IOException {
+		File file = new File(directory, SNAPSHOT_FILE);
+		if(!file.exists()) return;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				in.readByte();
+				StorageRecord record = readEntry(in);
+				records.put(record.getId(), record);
+			}
+		}
+	}
+	
+	//applies every complete entry of the journal, returning the length of the complete entries
+	private long replayJournal() throws IOException {
+		File file = new File(directory, JOURNAL_FILE);
+		if(!file.exists()) return 0;
+		long validLength = 0;
+		try(CountingInputStream counter = new CountingInputStream(new FileInputStream(file)); DataInputStream in = new DataInputStream(counter)) {
+			while(true) {
+				byte op;
+				StorageRecord record;
+				try {
+					op = in.readByte();
+					record = readEntry(in);
+				} catch(EOFException e) {
+					break;
+				} catch(IOException e) {
+					logger.warn("Stopped replaying " + file + " at a corrupt entry", e);
+					break;
+				}
+				if(op == PUT) records.put(record.getId(), record);
+				else if(op == REMOVE) records.remove(record.getId());
+				else break;
+				validLength = counter.getCount();
+				journalEntries++;
+			}
+		}
+		return validLength;
+	}
+	
+	//counts the bytes read through it so the end of the last complete journal entry is known
+	private static final class CountingInputStream extends BufferedInputStream {
+		private long count;
+		
+		private CountingInputStream(FileInputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public synchronized int read() throws IOException {
+			int b = super.read();
+			if(b != -1) count++;
+			return b;
+		}
+		
+		@Override
+		public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if(read > 0) count += read;
+			return read;
+		}
+		
+		private long getCount() {
+			return count;
+		}
+	}
+}
@@ -1,11 +1,22 @@
 package dakota.poonani;
 
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
-import java.util.ListIterator;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,13 +28,26 @@ import com.sedmelluq.discord.lavaplayer.track.playback.NonAllocatingAudioFrameBu
 
 import discord4j.core.DiscordClient;
 import discord4j.core.DiscordClientBuilder;
+import discord4j.core.shard.ShardingClientBuilder;
 import discord4j.core.event.EventDispatcher;
+import discord4j.core.event.domain.Event;
+import discord4j.core.event.domain.VoiceStateUpdateEvent;
+import discord4j.core.event.domain.lifecycle.ReadyEvent;
 import discord4j.core.event.domain.guild.GuildCreateEvent;
 import discord4j.core.event.domain.guild.MemberJoinEvent;
+import discord4j.core.event.domain.guild.MemberLeaveEvent;
+import discord4j.core.event.domain.guild.MemberUpdateEvent;
 import discord4j.core.event.domain.message.MessageCreateEvent;
+import discord4j.core.event.domain.role.RoleCreateEvent;
+import discord4j.core.event.domain.role.RoleDeleteEvent;
+import discord4j.core.event.domain.role.RoleUpdateEvent;
 import discord4j.core.object.data.stored.PresenceBean;
-import discord4j.core.object.entity.MessageChannel;
 import discord4j.core.object.presence.Presence;
+import discord4j.core.object.util.Snowflake;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 /***********************
 420/Dakota's Discord Bot
@@ -154,101 +178,305 @@ public class Main {
 	
 	private static Logger logger = LoggerFactory.getLogger(Main.class);
 	
-	private static LocalDateTime now;
-	private static DiscordClient client;
-	
-	//Keep GuildHandlers sorted by the ID of the guild
-	private static Map<Long, GuildHandler> handlers = new TreeMap<Long, GuildHandler>();
-	
-	//separate thread that handles checking reminders
-	private static ReminderThread reminderThread = new ReminderThread();
-	private static class ReminderThread extends Thread {
-		public boolean stop = false;
-		public void run() {
-			while(!stop) {
-				try {
-					sleep(handleReminders() * 1000);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-	}
+	//the shards this process runs, and their clients by shard index as they are started
+	static ShardAssignment shards;
+	private static Map<Integer, DiscordClient> clients = new ConcurrentHashMap<Integer, DiscordClient>();
+	//every shard dispatches its events on a thread of its own
+	private static List<Scheduler> eventSchedulers = new CopyOnWriteArrayList<Scheduler>();
+	
+	//threads available for work that can only be done by blocking, e.g. file access
+	private static final int BLOCKING_THREADS = 4;
+	
+	//default bound of the pre-encoded taunt cache
+	private static final long OPUS_CACHE_BYTES = 32L * 1024 * 1024;
+	
+	//most :play: sources whose resolved tracks are remembered
+	private static final int TRACK_CACHE_ENTRIES = 256;
+	
+	//default bound of the disk cache of audio behind links
+	private static final long AUDIO_CACHE_BYTES = 512L * 1024 * 1024;
+	
+	//most usernames remembered, and for how long
+	private static final int NAME_CACHE_ENTRIES = 10000;
+	private static final long NAME_CACHE_TTL_MILLIS = 30 * 60 * 1000;
+	
+	//default number of guilds each shard initializes at once
+	private static final int INIT_CONCURRENCY = 8;
+	private static int initConcurrency = INIT_CONCURRENCY;
+	//whether loading guilds' stored state is deferred until after ready, to their first use or the background sweep
+	static boolean lazyHydration;
+	//whether lazy guilds are still loaded in the background after ready, without it the reminders of a guild only fire once it is used
+	static boolean hydrationSweep = true;
+	
+	//time to ready: the guilds each shard's READY listed that haven't been created yet
+	private static long startMillis;
+	static Map<Integer, Set<Long>> uninitializedGuilds = new ConcurrentHashMap<Integer, Set<Long>>();
+	static AtomicBoolean readyReported = new AtomicBoolean();
+	//READY lists every guild as unavailable and guilds in an outage aren't created until it ends, so a shard stops waiting for them after this long
+	private static final long INIT_TIMEOUT_SECONDS = 60;
+	private static Duration initTimeout = Duration.ofSeconds(INIT_TIMEOUT_SECONDS);
+	
+	//GuildHandlers by the ID of the guild, for every shard of this process. Written from GuildCreateEvents and read from every other event, on different threads
+	static Map<Long, GuildHandler> handlers = new ConcurrentHashMap<Long, GuildHandler>();
 	
 	/*
 	 * Methods
 	 */
 	
 	/**
-	 * Initializes the bot user, creates event listeners, reads information from file, then continually checks reminders and events every minute
-	 * @param args Command line args (unused)
+	 * Initializes the bot user, creates event listeners, reads information from file, then continually checks reminders and events every minute.
+	 * The shards run are set with poonani.shards.count and poonani.shards, e.g. 0,1 or 4-7. By default a single shard serves every guild.
+	 * Each shard initializes poonani.init.concurrency guilds at once and waits up to poonani.init.timeout.seconds for the guilds its READY listed.
+	 * With poonani.init.lazy loading guilds' stored state is deferred until after ready, to their first use or a background sweep that poonani.init.sweep=false turns off
+	 * @param args Command line args, the bot's token
 	 */
 	public static void main(String[] args)
 	{
 		logger.info("Starting instance of Poonani");
+		startMillis = System.currentTimeMillis();
 		
-		//Initialize user, login with custom status
-		PresenceBean customStatus = new PresenceBean();
-		customStatus.setStatus("Back from the dead!");
-		//customStatus.setStatus("Under construction!");
-		client = new DiscordClientBuilder(args[0])
-				.setInitialPresence(new Presence(customStatus))
-				//.setRetryOptions(new RetryOptions(Duration.ZERO, Duration.ZERO, Integer.MAX_VALUE, ???))
-				.build();
-		logger.info("Created the client");
+		//Discord sends each guild to a single shard, so processes running different shards of the same count split the guilds between them
+		shards = ShardAssignment.parse(Integer.getInteger("poonani.shards.count", 1), System.getProperty("poonani.shards"));
+		logger.info("Running shards " + shards);
+		initConcurrency = Integer.getInteger("poonani.init.concurrency", INIT_CONCURRENCY);
+		lazyHydration = Boolean.getBoolean("poonani.init.lazy");
+		hydrationSweep = Boolean.parseBoolean(System.getProperty("poonani.init.sweep", "true"));
+		initTimeout = Duration.ofSeconds(Long.getLong("poonani.init.timeout.seconds", INIT_TIMEOUT_SECONDS));
 		
 		//Initialize audio functions
 		AudioPlayerManager audioPlayerManager = new DefaultAudioPlayerManager();
 		audioPlayerManager.getConfiguration().setFrameBufferFactory(NonAllocatingAudioFrameBuffer::new);
 		AudioSourceManagers.registerRemoteSources(audioPlayerManager);
 		AudioSourceManagers.registerLocalSource(audioPlayerManager);
+		//tracks are resolved by the manager above and played by this one, whose PCM output the guilds' mixers sum
+		AudioPlayerManager pcmAudioPlayerManager = new DefaultAudioPlayerManager();
+		pcmAudioPlayerManager.getConfiguration().setOutputFormat(MixingAudioProvider.PCM_FORMAT);
+		pcmAudioPlayerManager.getConfiguration().setFrameBufferFactory(NonAllocatingAudioFrameBuffer::new);
+		GuildHandler.trackCache = new TrackCache(audioPlayerManager, TRACK_CACHE_ENTRIES);
+		//taunts come from the classpath, or from an external directory if one is configured
+		GuildHandler.tauntCatalog = TauntCatalog.load(System.getProperty("poonani.taunts.dir"), "taunts", audioPlayerManager);
 		
 		//Initialize GuildHandler
-		GuildHandler.client = client;
+		GuildHandler.outbound = new OutboundQueue(Integer.getInteger("poonani.outbound.bucket", OutboundQueue.DEFAULT_BUCKET_SIZE),
+				Long.getLong("poonani.outbound.refill.millis", OutboundQueue.DEFAULT_BUCKET_REFILL_MILLIS));
+		GuildHandler.nameCache = new NameCache(NAME_CACHE_ENTRIES, NAME_CACHE_TTL_MILLIS);
 		GuildHandler.audioPlayerManager = audioPlayerManager;
+		GuildHandler.pcmAudioPlayerManager = pcmAudioPlayerManager;
+		GuildHandler.maxMixerVoices = Integer.getInteger("poonani.mixer.voices", GuildHandler.maxMixerVoices);
+		GuildHandler.prefetchDepth = Integer.getInteger("poonani.prefetch.depth", GuildHandler.prefetchDepth);
+		GuildHandler.maxQueuedTracks = Integer.getInteger("poonani.queue.max", GuildHandler.maxQueuedTracks);
+		GuildHandler.audioIdleMillis = Long.getLong("poonani.audio.idle.seconds", GuildHandler.audioIdleMillis / 1000) * 1000;
+		AtomicInteger blockingThreadCount = new AtomicInteger();
+		GuildHandler.blockingScheduler = Schedulers.fromExecutorService(Executors.newFixedThreadPool(BLOCKING_THREADS, runnable -> {
+			Thread thread = new Thread(runnable, "poonani-blocking-" + blockingThreadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}));
+		AtomicInteger laneThreadCount = new AtomicInteger();
+		ExecutorService lanePool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+			Thread thread = new Thread(runnable, "poonani-guild-" + laneThreadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		GuildHandler.lanePool = lanePool;
+		//taunts are encoded once and played from memory afterwards
+		GuildHandler.opusFrameCache = new OpusFrameCache(audioPlayerManager, GuildHandler.blockingScheduler,
+				Long.getLong("poonani.opuscache.bytes", OPUS_CACHE_BYTES), Boolean.getBoolean("poonani.opuscache.offheap"));
+		//audio behind links is downloaded once and played from the disk afterwards
+		try {
+			GuildHandler.remoteAudioCache = new RemoteAudioCache(new File(System.getProperty("poonani.audiocache.dir", "audio-cache")),
+					Long.getLong("poonani.audiocache.bytes", AUDIO_CACHE_BYTES), GuildHandler.blockingScheduler);
+		} catch(IOException e) {
+			logger.error("The remote audio cache could not be opened, links will be streamed", e);
+		}
+		GuildHandler.reminderScheduler = new ReminderScheduler();
+		GuildHandler.storageDirectory = new File(System.getProperty("poonani.storage.dir", "storage"));
+		GuildHandler.storageFsyncPolicy = JournalStorage.FsyncPolicy.valueOf(System.getProperty("poonani.storage.fsync", "INTERVAL"));
 		
-		//Register event handlers
-		EventDispatcher dispatcher = client.getEventDispatcher();
-		dispatcher.on(GuildCreateEvent.class).subscribe(event -> initializeGuild(event));
-		dispatcher.on(MessageCreateEvent.class).subscribe(event -> handlers.get(event.getGuild().block().getId().asLong()).handle(event));
-		//dispatcher.on(MemberJoinEvent.class).subscribe(event -> handlers.get(event.getGuild().block().getId().asLong()).handle(event));
-		
-		//Login and wait for it to be connected
+		//Initialize user, login with custom status
+		PresenceBean customStatus = new PresenceBean();
+		customStatus.setStatus("Back from the dead!");
+		//customStatus.setStatus("Under construction!");
+		Presence presence = new Presence(customStatus);
+		//the shards share one REST router, cache and identify rate limit of one login every 6 seconds. The builder only emits a shard's builder
+		//once the shard before it has connected, so the logins below are started together but shards still connect one after another
 		logger.info("Attempting to log in");
-		client.login().subscribe();
-		while(!client.isConnected()) {
+		Flux<DiscordClientBuilder> builders = new ShardingClientBuilder(args[0])
+				.setShardCount(shards.getShardCount())
+				.setShardIndexFilter(shards::runs)
+				.build();
+		startShards(builders, shards, (builder, shardIndex) -> startShard(builder, shardIndex, presence))
+				.flatMap(DiscordClient::login)
+				.subscribe();
+		
+		//Wait for every shard to be connected
+		while(!allConnected()) {
 			sleep(5000);
 			System.out.println("Still initializing.");
 		}
 		
-//		reminderThread.start();
-		
 		//server method of properly stopping the Poonani instance
 		Scanner scanner = new Scanner(System.in);
 		System.out.println("Done initializing. Enter quit to cease execution.");
 		while(!scanner.nextLine().equals("quit")) {}
 		scanner.close();
-		logger.info("Quit command received. Waiting up to a minute for a reminder check cycle to finish");
-		reminderThread.stop = true;
-		long start = System.currentTimeMillis();
-		//wait for the reminder thread to quit with a timeout of one minute
-		while(reminderThread.isAlive()) {
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {}
-			if(System.currentTimeMillis() - start > 60000) {
-				break;
-			}
-		}
+		logger.info("Quit command received. Stopping the reminder scheduler");
+		GuildHandler.reminderScheduler.shutdown();
+		GuildHandler.opusFrameCache.logStatistics();
+		GuildHandler.trackCache.logStatistics();
+		if(GuildHandler.remoteAudioCache != null) GuildHandler.remoteAudioCache.logStatistics();
+		GuildHandler.outbound.logStatistics();
+		logger.info("Closing guild storage");
+		for(GuildHandler handler : handlers.values()) handler.close();
 		logger.info("Logging out");
-		client.logout().block();
+		for(DiscordClient client : clients.values()) client.logout().block();
+		for(Scheduler events : eventSchedulers) events.dispose();
+		GuildHandler.blockingScheduler.dispose();
+		lanePool.shutdown();
+	}
+	
+	//builders are emitted in ascending order of shard index and only for the shards the process runs, so a builder's position picks its index
+	static <B, C> Flux<C> startShards(Flux<B> builders, ShardAssignment shards, BiFunction<B, Integer, C> start) {
+		int[] shardIndexes = shards.getIndexes();
+		return builders.index((position, builder) -> start.apply(builder, shardIndexes[position.intValue()]));
+	}
+	
+	//builds the client of a shard and registers its event handlers
+	private static DiscordClient startShard(DiscordClientBuilder builder, int shardIndex, Presence presence) {
+		//each shard's events get a thread of their own, so a busy shard doesn't hold up the others
+		Scheduler events = Schedulers.fromExecutorService(Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "poonani-shard-" + shardIndex);
+			thread.setDaemon(true);
+			return thread;
+		}));
+		eventSchedulers.add(events);
+		DiscordClient client = builder
+				.setInitialPresence(presence)
+				.setEventScheduler(events)
+				//.setRetryOptions(new RetryOptions(Duration.ZERO, Duration.ZERO, Integer.MAX_VALUE, ???))
+				.build();
+		registerEvents(client.getEventDispatcher(), shardIndex);
+		clients.put(shardIndex, client);
+		logger.info("Created the client of shard " + shardIndex);
+		return client;
+	}
+	
+	static void registerEvents(EventDispatcher dispatcher, int shardIndex) {
+		dispatcher.on(ReadyEvent.class).subscribe(event -> expectGuilds(shardIndex, event.getGuilds().stream().map(guild -> guild.getId().asLong()).collect(Collectors.toCollection(HashSet::new))));
+		//guilds are initialized concurrently, up to the permit limit
+		dispatcher.on(GuildCreateEvent.class)
+				.flatMap(event -> initializeGuild(event, shardIndex), initConcurrency)
+				.subscribe();
+		//route by the guild ID carried in the event rather than fetching the guild, DMs have no handler
+		dispatcher.on(MessageCreateEvent.class)
+				.flatMap(event -> Mono.justOrEmpty(event.getGuildId())
+						.flatMap(guildId -> Mono.justOrEmpty(handlers.get(guildId.asLong())))
+						.flatMap(handler -> handler.handle(event))
+						.onErrorResume(Main::logEventError))
+				.subscribe();
+		route(dispatcher, VoiceStateUpdateEvent.class, event -> event.getCurrent().getGuildId(), GuildHandler::handle);
+		//membership and role changes keep every guild's role index and hierarchy current
+		route(dispatcher, MemberJoinEvent.class, MemberJoinEvent::getGuildId, GuildHandler::index);
+		route(dispatcher, MemberLeaveEvent.class, MemberLeaveEvent::getGuildId, GuildHandler::index);
+		route(dispatcher, MemberUpdateEvent.class, MemberUpdateEvent::getGuildId, GuildHandler::index);
+		route(dispatcher, RoleCreateEvent.class, RoleCreateEvent::getGuildId, GuildHandler::index);
+		route(dispatcher, RoleUpdateEvent.class, event -> event.getCurrent().getGuildId(), GuildHandler::index);
+		route(dispatcher, RoleDeleteEvent.class, RoleDeleteEvent::getGuildId, GuildHandler::index);
+		//dispatcher.on(MemberJoinEvent.class).flatMap(event -> Mono.justOrEmpty(handlers.get(event.getGuildId().asLong())).flatMap(handler -> handler.handle(event)).onErrorResume(Main::logEventError)).subscribe();
 	}
 	
-	private static void initializeGuild(GuildCreateEvent event) {
+	private static boolean allConnected() {
+		if(clients.size() < shards.getIndexes().length) return false;
+		for(DiscordClient client : clients.values()) {
+			if(!client.isConnected()) return false;
+		}
+		return true;
+	}
+	
+	private static Mono<Void> initializeGuild(GuildCreateEvent event, int shardIndex) {
+		long guildId = event.getGuild().getId().asLong();
 		//GuildCreateEvent is emitted on reconnections, so only add guilds if they are genuinely new connections (or the bot is starting up)
-		if(handlers.containsKey(event.getGuild().getId().asLong())) return;
-		
-		handlers.put(event.getGuild().getId().asLong(), new GuildHandler(event.getGuild()));
+		//a shard's events are dispatched one at a time, and a guild only belongs to one shard
+		if(!acceptsGuild(shards, shardIndex, guildId) || handlers.containsKey(guildId)) {
+			guildInitialized(shardIndex, guildId);
+			return Mono.empty();
+		}
+		GuildHandler handler = new GuildHandler(event.getGuild());
+		handlers.put(guildId, handler);
+		return (lazyHydration ? Mono.<Void>empty() : handler.hydrate())
+				.onErrorResume(Main::logEventError)
+				.doFinally(signal -> guildInitialized(shardIndex, guildId));
+	}
+	
+	//Discord only sends a shard its own guilds, anything else means the processes disagree on the shard count
+	static boolean acceptsGuild(ShardAssignment shards, int shardIndex, long guildId) {
+		if(shards.owns(shardIndex, guildId)) return true;
+		logger.warn("Shard " + shardIndex + " received guild " + guildId + " which belongs to shard " + ShardAssignment.shardOf(guildId, shards.getShardCount()) + ", ignoring it");
+		return false;
+	}
+	
+	//READY lists every guild the shard is about to receive. Only the first READY counts, later ones are reconnections
+	private static void expectGuilds(int shardIndex, Set<Long> pending) {
+		if(uninitializedGuilds.putIfAbsent(shardIndex, pending) != null) return;
+		logger.info("Shard " + shardIndex + " is connected after " + (System.currentTimeMillis() - startMillis) + "ms, initializing " + pending.size() + " guilds");
+		if(pending.isEmpty()) checkReady();
+		else Mono.delay(initTimeout).subscribe(tick -> stopWaiting(shardIndex));
+	}
+	
+	//every GuildCreate counts, including guilds that are skipped, so a shard's count always reaches zero
+	private static void guildInitialized(int shardIndex, long guildId) {
+		Set<Long> pending = uninitializedGuilds.get(shardIndex);
+		if(pending == null) return;
+		synchronized(pending) {
+			if(!pending.remove(guildId) || !pending.isEmpty()) return;
+		}
+		logger.info("Shard " + shardIndex + " initialized its guilds after " + (System.currentTimeMillis() - startMillis) + "ms");
+		checkReady();
+	}
+	
+	private static void stopWaiting(int shardIndex) {
+		Set<Long> pending = uninitializedGuilds.get(shardIndex);
+		synchronized(pending) {
+			if(pending.isEmpty()) return;
+			logger.warn("Shard " + shardIndex + " gave up on " + pending.size() + " unavailable guilds after " + initTimeout.getSeconds() + "s, they are initialized whenever they become available");
+			pending.clear();
+		}
+		checkReady();
+	}
+	
+	//reports the time to ready once every shard has initialized the guilds its READY listed
+	private static void checkReady() {
+		if(uninitializedGuilds.size() < shards.getIndexes().length) return;
+		for(Set<Long> pending : uninitializedGuilds.values()) {
+			synchronized(pending) {
+				if(!pending.isEmpty()) return;
+			}
+		}
+		if(!readyReported.compareAndSet(false, true)) return;
+		logger.info("Ready after " + (System.currentTimeMillis() - startMillis) + "ms with " + handlers.size() + " guilds" + (lazyHydration ? ", their stored state is deferred" : ""));
+		//lazy only defers loading past ready: reminders are part of the stored state, so by default every guild is still hydrated in the background, one at a time
+		if(lazyHydration && hydrationSweep) {
+			long sweepStart = System.currentTimeMillis();
+			Flux.fromIterable(handlers.values())
+					.concatMap(handler -> handler.hydrate().onErrorResume(Main::logEventError))
+					.then(Mono.fromRunnable(() -> logger.info("Hydrated every guild in the background in " + (System.currentTimeMillis() - sweepStart) + "ms")))
+					.subscribe();
+		}
+	}
+	
+	//routes an event to the handler of the guild it happened in
+	private static <E extends Event> void route(EventDispatcher dispatcher, Class<E> type, Function<E, Snowflake> guildId, BiFunction<GuildHandler, E, Mono<Void>> handle) {
+		dispatcher.on(type)
+				.flatMap(event -> Mono.justOrEmpty(handlers.get(guildId.apply(event).asLong()))
+						.flatMap(handler -> handle.apply(handler, event))
+						//an error escaping an event's handling would cancel the subscription to every later event
+						.onErrorResume(Main::logEventError))
+				.subscribe();
+	}
+	
+	private static Mono<Void> logEventError(Throwable e) {
+		logger.error("Unhandled error while handling an event", e);
+		return Mono.empty();
 	}
 	
 	private static void sleep(long duration) {
@@ -259,37 +487,4 @@ public class Main {
 			e.printStackTrace();
 		}
 	}
-
-	//check if any reminders are due. additionally, calculate and return the amount of time until the soonest upcoming reminder
-	//default behavior (if there are no other reminders to set the wait time) is to check every minute
-	private static long handleReminders() {
-		long minutesToWait = 1;
-		now = LocalDateTime.now();
-		//check the list of reminders for each guild
-		for(GuildHandler handler : handlers.values()) {
-			//this method of iteration is used so that elements can be deleted mid-iteration
-			ListIterator<Reminder> iter = handler.getReminders().listIterator();
-			while(iter.hasNext())
-			{
-				Reminder r = iter.next();
-				if(now.isAfter(r.getTime()))
-				{
-					client.getChannelById(r.getChannelSnowflake()).subscribe(channel -> {
-						String event = r.getEvent();
-						if(r.getMention()) {
-							event = client.getUserById(r.getUserSnowflake()).block().getUsername() + ", " + event;
-						}
-						((MessageChannel) channel).createMessage(event);
-					});
-					iter.remove();
-				} else {
-					long minutesToNext = ChronoUnit.MINUTES.between(now, r.getTime());
-					if(minutesToNext > minutesToWait) {
-						minutesToWait = minutesToNext;
-					}
-				}
-			}
-		}
-		return minutesToWait;
-	}
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package dakota.poonani;
+
+import java.util.BitSet;
+
+/**
+ * The analysis of a single message that is shared by every routine of a guild: a lowercased view of the message
+ * and the offsets of its tokens, delimited by spaces and newlines.
+ * The lowercased view has the same length as the message, so offsets found in one are valid in the other.
+ */
+public class MessageAnalysis
+{
+	/*
+	 * Fields
+	 */
+
+	private final String message;
+	private final char[] lower;
+	private final BitSet tokenStarts;
+
+	/*
+	 * Constructors
+	 */
+
+	/**
+	 * Analyzes a message
+	 * @param message The message to analyze
+	 */
+	public MessageAnalysis(String message)
+	{
+		this.message = message;
+		this.lower = new char[message.length()];
+		this.tokenStarts = new BitSet(message.length());
+		for(int i = 0; i < lower.length; i++) {
+			char c = message.charAt(i);
+			lower[i] = Character.toLowerCase(c);
+			if(!isLeftBoundary(c) && (i == 0 || isLeftBoundary(message.charAt(i-1)))) tokenStarts.set(i);
+		}
+	}
+
+	/*
+	 * Getters/Setters
+	 */
+
+	/**
+	 * Gets the original message
+	 * @return The original message
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Gets the length of the message
+	 * @return The length of the message
+	 */
+	public int length() {
+		return lower.length;
+	}
+
+	/**
+	 * Gets the lowercased character at index
+	 * @param index The index of the character
+	 * @return The lowercased character at index
+	 */
+	public char lowerCharAt(int index) {
+		return lower[index];
+	}
+
+	/*
+	 * Methods
+	 */
+
+	/**
+	 * Returns whether a token begins at index
+	 * @param index The index to check
+	 * @return Whether a token begins at index
+	 */
+	public boolean isTokenStart(int index) {
+		return tokenStarts.get(index);
+	}
+
+	/**
+	 * Returns whether the region [start, end) is a "word in a sentence": it begins a token, and is followed by a space, newline, ',', '.', '!', or the end of the message
+	 * @param start The first index of the region
+	 * @param end The index after the last index of the region
+	 * @return Whether the region is a "word in a sentence"
+	 */
+	public boolean isBounded(int start, int end) {
+		return end > start && isTokenStart(start) && (end == lower.length || isRightBoundary(lower[end]));
+	}
+
+	//the characters that may precede and follow a phrase, as the original atBeginning, atMiddle and atEnd checks had them
+	private static boolean isLeftBoundary(char c) {
+		return c == ' ' || c == '\n';
+	}
+
+	private static boolean isRightBoundary(char c) {
+		return c == ' ' || c == '\n' || c == ',' || c == '.' || c == '!';
+	}
+}
@@ -0,0 +1,87 @@
+package dakota.poonani;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores records in a primary storage, and copies every write to a mirror.
+ * Reads only ever come from the primary, and a failing mirror never fails a write.
+ */
+public class MirroredStorage implements GuildStorage
+{
+	/*
+	 * Fields
+	 */
+	
+	private static Logger logger = LoggerFactory.getLogger(MirroredStorage.class);
+	
+	private final GuildStorage primary;
+	private final GuildStorage mirror;
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Creates a mirrored storage
+	 * @param primary The storage that is written first and read from
+	 * @param mirror The storage that receives a copy of every write, it should not block
+	 */
+	public MirroredStorage(GuildStorage primary, GuildStorage mirror)
+	{
+		this.primary = primary;
+		this.mirror = mirror;
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets the storage that is written first and read from
+	 * @return The primary storage
+	 */
+	public GuildStorage getPrimary() {
+		return primary;
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	@Override
+	public void put(StorageRecord record) {
+		primary.put(record);
+		try {
+			mirror.put(record);
+		} catch(RuntimeException e) {
+			logger.error("Mirroring a put failed", e);
+		}
+	}
+	
+	@Override
+	public void remove(StorageRecord record) {
+		primary.remove(record);
+		try {
+			mirror.remove(record);
+		} catch(RuntimeException e) {
+			logger.error("Mirroring a remove failed", e);
+		}
+	}
+	
+	@Override
+	public List<StorageRecord> load() {
+		return primary.load();
+	}
+	
+	@Override
+	public void close() {
+		try {
+			mirror.close();
+		} finally {
+			primary.close();
+		}
+	}
+}
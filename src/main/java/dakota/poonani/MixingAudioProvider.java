@@ -0,0 +1,297 @@
+package dakota.poonani;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import com.sedmelluq.discord.lavaplayer.format.AudioDataFormat;
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import com.sedmelluq.discord.lavaplayer.natives.opus.OpusDecoder;
+import com.sedmelluq.discord.lavaplayer.natives.opus.OpusEncoder;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+
+import discord4j.voice.AudioProvider;
+
+/**
+ * Plays any number of sounds at once, up to a cap, by mixing them into a single stream.
+ * Every 20ms each voice is decoded to PCM, the samples are summed and clamped to the 16 bit range, and the mix is encoded to Opus once.
+ * A single cached taunt playing alone, or over a main player that is between tracks, is passed through without decoding or encoding anything.
+ * Every buffer is allocated up front, so providing a frame allocates nothing.
+ */
+public class MixingAudioProvider extends AudioProvider
+{
+	/*
+	 * Fields
+	 */
+	
+	//players mixed by this provider must output this format
+	public static final AudioDataFormat PCM_FORMAT = StandardAudioDataFormats.DISCORD_PCM_S16_BE;
+	private static final AudioDataFormat OPUS_FORMAT = StandardAudioDataFormats.DISCORD_OPUS;
+	private static final int CHANNELS = 2;
+	private static final int SAMPLE_RATE = 48000;
+	//samples per channel in one 20ms frame
+	private static final int FRAME_SAMPLES = 960;
+	private static final int TOTAL_SAMPLES = FRAME_SAMPLES * CHANNELS;
+	private static final int OPUS_QUALITY = 10;
+	
+	private abstract static class Voice {
+		//set by other threads to have the voice thread remove the voice, which is the only thread that may release it
+		private volatile boolean stopped;
+		
+		//adds the voice's next frame to mix, returns whether it had one
+		abstract boolean mixInto(int[] mix, MixingAudioProvider mixer);
+		
+		abstract boolean isFinished();
+		
+		abstract void close();
+	}
+	
+	//a LavaPlayer player with PCM output
+	private static final class PlayerVoice extends Voice {
+		private final AudioPlayer player;
+		//whether the voice ends, and its player is destroyed, when its track ends
+		private final boolean transient_;
+		private final ByteBuffer pcm = ByteBuffer.allocate(PCM_FORMAT.maximumChunkSize());
+		private final MutableAudioFrame frame = new MutableAudioFrame();
+		
+		private PlayerVoice(AudioPlayer player, boolean transient_) {
+			this.player = player;
+			this.transient_ = transient_;
+			frame.setBuffer(pcm);
+		}
+		
+		@Override
+		boolean mixInto(int[] mix, MixingAudioProvider mixer) {
+			pcm.clear();
+			if(!player.provide(frame)) return false;
+			//big endian samples, read in place
+			int samples = Math.min(pcm.position() / 2, TOTAL_SAMPLES);
+			for(int i = 0; i < samples; i++) mix[i] += pcm.getShort(i * 2);
+			return true;
+		}
+		
+		//whether the player has nothing to provide, e.g. the queue between tracks
+		private boolean isSilent() {
+			return player.getPlayingTrack() == null || player.isPaused();
+		}
+		
+		@Override
+		boolean isFinished() {
+			return transient_ && player.getPlayingTrack() == null;
+		}
+		
+		@Override
+		void close() {
+			if(transient_) player.destroy();
+		}
+	}
+	
+	//a taunt from the Opus frame cache, decoded only when it has to be mixed with something else
+	private static final class OpusVoice extends Voice {
+		private final OpusFrameCache.Cursor cursor;
+		private OpusDecoder decoder;
+		private boolean finished;
+		
+		private OpusVoice(OpusFrameCache.Cursor cursor) {
+			this.cursor = cursor;
+		}
+		
+		private boolean passThrough(ByteBuffer target) {
+			target.clear();
+			if(!cursor.next(target)) {
+				finished = true;
+				return false;
+			}
+			target.flip();
+			return true;
+		}
+		
+		@Override
+		boolean mixInto(int[] mix, MixingAudioProvider mixer) {
+			ByteBuffer opus = mixer.opusScratch;
+			if(!passThrough(opus)) return false;
+			if(decoder == null) decoder = new OpusDecoder(SAMPLE_RATE, CHANNELS);
+			ShortBuffer decoded = mixer.decodeScratch;
+			decoded.clear();
+			int samples = Math.min(decoder.decode(opus, decoded) * CHANNELS, TOTAL_SAMPLES);
+			for(int i = 0; i < samples; i++) mix[i] += decoded.get(i);
+			return true;
+		}
+		
+		@Override
+		boolean isFinished() {
+			return finished;
+		}
+		
+		@Override
+		void close() {
+			if(decoder != null) decoder.close();
+		}
+	}
+	
+	private final int maxVoices;
+	//replaced rather than modified, so the voice thread can read it without locking
+	private volatile Voice[] voices = new Voice[0];
+	private volatile PlayerVoice mainVoice;
+	
+	//only touched by the voice thread
+	private final int[] mix = new int[TOTAL_SAMPLES];
+	private final ShortBuffer mixed = ByteBuffer.allocateDirect(TOTAL_SAMPLES * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+	private final ByteBuffer opusScratch = ByteBuffer.allocateDirect(OPUS_FORMAT.maximumChunkSize());
+	private final ShortBuffer decodeScratch = ByteBuffer.allocateDirect(TOTAL_SAMPLES * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+	private OpusEncoder encoder;
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Creates a mixer
+	 * @param maxVoices The most sounds that can play at once, besides the main player
+	 */
+	public MixingAudioProvider(int maxVoices)
+	{
+		//the encoder writes straight into the buffer Discord4J sends, which it requires to be direct
+		super(ByteBuffer.allocateDirect(OPUS_FORMAT.maximumChunkSize()));
+		this.maxVoices = maxVoices;
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Sets the player that is always mixed in, e.g. the one playing the queue. Its output format must be PCM_FORMAT
+	 * @param player The main player, or null for none
+	 */
+	public synchronized void setMainPlayer(AudioPlayer player) {
+		if(mainVoice != null) remove(mainVoice);
+		mainVoice = player == null ? null : new PlayerVoice(player, false);
+		if(mainVoice != null) add(mainVoice);
+	}
+	
+	/**
+	 * Gets the number of sounds playing besides the main player
+	 * @return The number of sounds playing
+	 */
+	public int getVoiceCount() {
+		Voice[] current = voices;
+		return mainVoice == null ? current.length : current.length - 1;
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Starts playing a cached taunt alongside everything else
+	 * @param cursor The cursor of the taunt
+	 * @return Whether it was started, false if the cap was reached
+	 */
+	public synchronized boolean addVoice(OpusFrameCache.Cursor cursor) {
+		if(getVoiceCount() >= maxVoices) return false;
+		add(new OpusVoice(cursor));
+		return true;
+	}
+	
+	/**
+	 * Starts playing a player alongside everything else. The player is destroyed once its track ends
+	 * @param player A player already playing a track, its output format must be PCM_FORMAT
+	 * @return Whether it was started, false if the cap was reached
+	 */
+	public synchronized boolean addVoice(AudioPlayer player) {
+		if(getVoiceCount() >= maxVoices) return false;
+		add(new PlayerVoice(player, true));
+		return true;
+	}
+	
+	private synchronized void add(Voice voice) {
+		Voice[] current = voices;
+		Voice[] next = Arrays.copyOf(current, current.length + 1);
+		next[current.length] = voice;
+		voices = next;
+	}
+	
+	//only the voice thread may remove voices that hold native resources
+	private synchronized void remove(Voice voice) {
+		Voice[] current = voices;
+		Voice[] next = new Voice[current.length];
+		int count = 0;
+		for(Voice v : current) {
+			if(v != voice) next[count++] = v;
+		}
+		if(count == current.length) return;
+		voices = Arrays.copyOf(next, count);
+		voice.close();
+	}
+	
+	@Override
+	public boolean provide() {
+		Voice[] current = voices;
+		if(current.length == 0) return false;
+		
+		OpusVoice only = soleOpusVoice(current);
+		if(only != null) {
+			if(only.passThrough(getBuffer())) return true;
+			remove(only);
+			return false;
+		}
+		
+		Arrays.fill(mix, 0);
+		boolean mixedAny = false;
+		for(Voice voice : current) {
+			if(voice.stopped) {
+				remove(voice);
+			} else if(voice.mixInto(mix, this)) {
+				mixedAny = true;
+			} else if(voice.isFinished()) {
+				remove(voice);
+			}
+		}
+		if(!mixedAny) return false;
+		
+		for(int i = 0; i < TOTAL_SAMPLES; i++) {
+			int sample = mix[i];
+			//clamped rather than left to overflow, which would wrap around into loud noise
+			mixed.put(i, (short) (sample > Short.MAX_VALUE ? Short.MAX_VALUE : sample < Short.MIN_VALUE ? Short.MIN_VALUE : sample));
+		}
+		if(encoder == null) encoder = new OpusEncoder(SAMPLE_RATE, CHANNELS, OPUS_QUALITY);
+		ByteBuffer out = getBuffer();
+		out.clear();
+		return encoder.encode(mixed, FRAME_SAMPLES, out) > 0;
+	}
+	
+	//the cached taunt that is the only thing audible, if there is one. The main player is always a voice, so it's skipped while it is silent
+	private OpusVoice soleOpusVoice(Voice[] current) {
+		PlayerVoice main = mainVoice;
+		OpusVoice only = null;
+		for(Voice voice : current) {
+			if(voice == main && main.isSilent()) continue;
+			if(only != null || !(voice instanceof OpusVoice) || voice.stopped) return null;
+			only = (OpusVoice) voice;
+		}
+		return only;
+	}
+	
+	/**
+	 * Stops every sound except the main player. They are released on the next frame
+	 */
+	public void stopVoices() {
+		for(Voice voice : voices) {
+			if(voice != mainVoice) voice.stopped = true;
+		}
+	}
+	
+	/**
+	 * Releases every voice and the encoder. Only call this once nothing calls provide() anymore, i.e. after the voice connection was closed
+	 */
+	public synchronized void close() {
+		for(Voice voice : voices) voice.close();
+		voices = new Voice[0];
+		mainVoice = null;
+		if(encoder != null) encoder.close();
+		encoder = null;
+	}
+}
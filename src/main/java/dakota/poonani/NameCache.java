@@ -0,0 +1,179 @@
+package dakota.poonani;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import discord4j.core.DiscordClient;
+import discord4j.core.object.entity.Member;
+import discord4j.core.object.entity.User;
+import discord4j.core.object.util.Snowflake;
+import discord4j.rest.http.client.ClientException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Remembers the usernames of users and members, so the same names aren't fetched from Discord over and over.
+ * Names expire after a while and are forgotten early when the member is updated. Users that couldn't be found, which Discord answers with a 404, are remembered too, as having no name.
+ * A name requested again while it is being fetched is only fetched once. Names are the same whichever shard's client fetches them, so one cache serves every shard.
+ * It is safe to use from any thread.
+ */
+public class NameCache
+{
+	/*
+	 * Fields
+	 */
+	
+	//how many names are fetched at once when filling a batch
+	private static final int FILL_CONCURRENCY = 8;
+	
+	private static final class Entry {
+		//null if the user couldn't be found
+		private final String name;
+		private final long expiresAt;
+		
+		private Entry(String name, long expiresAt) {
+			this.name = name;
+			this.expiresAt = expiresAt;
+		}
+	}
+	
+	private final int maxEntries;
+	private final long ttlMillis;
+	//access ordered, so the least recently requested name is evicted first
+	private final LinkedHashMap<String, Entry> entries;
+	//names being fetched, so a name requested again while fetching is only fetched once
+	private final Map<String, Mono<Optional<String>>> loading = new ConcurrentHashMap<String, Mono<Optional<String>>>();
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Creates an empty cache
+	 * @param maxEntries The most names the cache remembers
+	 * @param ttlMillis How long a name is remembered
+	 */
+	public NameCache(int maxEntries, long ttlMillis)
+	{
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > NameCache.this.maxEntries;
+			}
+		};
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets the number of names served from the cache
+	 * @return The number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Gets the number of names that had to be fetched, or wait for a fetch
+	 * @return The number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Gets a user's username
+	 * @param client The client to fetch the name with if it isn't cached
+	 * @param userId The ID of the user
+	 * @return The username, empty if the user couldn't be found
+	 */
+	public Mono<String> getUsername(DiscordClient client, Snowflake userId) {
+		return get("user:" + userId.asString(), () -> client.getUserById(userId).map(User::getUsername));
+	}
+	
+	/**
+	 * Gets the username of a member of a guild
+	 * @param client The client to fetch the name with if it isn't cached
+	 * @param guildId The ID of the guild
+	 * @param userId The ID of the member
+	 * @return The username, empty if the user isn't a member of the guild
+	 */
+	public Mono<String> getMemberName(DiscordClient client, Snowflake guildId, Snowflake userId) {
+		return get(memberKey(guildId, userId), () -> client.getMemberById(guildId, userId).map(Member::getUsername));
+	}
+	
+	/**
+	 * Gets the usernames of several members, fetching the ones that aren't cached concurrently
+	 * @param client The client to fetch the names with if they aren't cached
+	 * @param members The IDs of the members mapped to the IDs of their guilds, the way Routines keep them
+	 * @return The usernames in the same order as members, skipping users that aren't members of their guild
+	 */
+	public Flux<String> getMemberNames(DiscordClient client, Map<Long, Long> members) {
+		return Flux.fromIterable(members.entrySet())
+				.flatMapSequential(member -> getMemberName(client, Snowflake.of(member.getValue()), Snowflake.of(member.getKey())), FILL_CONCURRENCY);
+	}
+	
+	/**
+	 * Forgets the names of a member, e.g. because they were updated
+	 * @param guildId The ID of the guild
+	 * @param userId The ID of the member
+	 */
+	public void invalidate(Snowflake guildId, Snowflake userId) {
+		synchronized(entries) {
+			entries.remove("user:" + userId.asString());
+			entries.remove(memberKey(guildId, userId));
+		}
+	}
+	
+	private static String memberKey(Snowflake guildId, Snowflake userId) {
+		return "member:" + guildId.asString() + ":" + userId.asString();
+	}
+	
+	//fetches a name that isn't cached. Other errors than a 404 aren't cached, the next request fetches the name again
+	Mono<String> get(String key, Supplier<Mono<String>> fetch) {
+		long now = System.currentTimeMillis();
+		Entry cached;
+		synchronized(entries) {
+			cached = entries.get(key);
+			if(cached != null && cached.expiresAt <= now) {
+				entries.remove(key);
+				cached = null;
+			}
+		}
+		if(cached != null) {
+			hits.incrementAndGet();
+			return Mono.justOrEmpty(cached.name);
+		}
+		misses.incrementAndGet();
+		return loading.computeIfAbsent(key, k -> fetch.get()
+				//what isn't in Discord4J's cache is fetched over REST, where a missing user or member is an error rather than empty
+				.onErrorResume(ClientException.isStatusCode(404), error -> Mono.empty())
+				.map(Optional::of)
+				.defaultIfEmpty(Optional.empty())
+				.doOnNext(name -> {
+					synchronized(entries) {
+						entries.put(key, new Entry(name.orElse(null), System.currentTimeMillis() + ttlMillis));
+					}
+				})
+				.doFinally(signal -> loading.remove(key))
+				.cache())
+				.flatMap(Mono::justOrEmpty);
+	}
+}
@@ -0,0 +1,302 @@
+package dakota.poonani;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Taunts encoded once into the Opus frames Discord is sent, shared by every guild.
+ * A cached taunt is played by copying its frames straight into the audio provider's buffer, so playing it again never decodes or encodes anything.
+ * The cache is bounded by the total size of the frames it holds, evicting the least recently played taunts first.
+ */
+public class OpusFrameCache
+{
+	/*
+	 * Fields
+	 */
+	
+	private static Logger logger = LoggerFactory.getLogger(OpusFrameCache.class);
+	
+	//how long encoding waits for the next frame before giving up on a taunt
+	private static final long FRAME_TIMEOUT_MILLIS = 5000;
+	
+	/**
+	 * Every Opus frame of a taunt, packed into one buffer
+	 */
+	public static final class EncodedAudio {
+		private final ByteBuffer data;
+		//frame i is [offsets[i], offsets[i+1]) of data
+		private final int[] offsets;
+		
+		EncodedAudio(ByteBuffer data, int[] offsets) {
+			this.data = data;
+			this.offsets = offsets;
+		}
+		
+		/**
+		 * Gets the number of frames
+		 * @return The number of frames
+		 */
+		public int getFrameCount() {
+			return offsets.length - 1;
+		}
+		
+		/**
+		 * Gets the memory the frames occupy
+		 * @return The size of the frames and their offsets in bytes
+		 */
+		public long getSize() {
+			return data.capacity() + 4L * offsets.length;
+		}
+		
+		/**
+		 * Creates a cursor that plays the frames from the beginning. Each playback needs its own cursor
+		 * @return A new cursor
+		 */
+		public Cursor cursor() {
+			return new Cursor(this);
+		}
+	}
+	
+	/**
+	 * A position in the frames of an EncodedAudio, owned by a single playback
+	 */
+	public static final class Cursor {
+		private final EncodedAudio audio;
+		//a view of the shared frames with its own position and limit
+		private final ByteBuffer view;
+		private int frame;
+		
+		private Cursor(EncodedAudio audio) {
+			this.audio = audio;
+			this.view = audio.data.duplicate();
+		}
+		
+		/**
+		 * Copies the next frame into target
+		 * @param target The buffer to copy the frame into
+		 * @return Whether there was another frame
+		 */
+		public boolean next(ByteBuffer target) {
+			if(frame >= audio.getFrameCount()) return false;
+			view.limit(audio.offsets[frame+1]).position(audio.offsets[frame]);
+			target.put(view);
+			frame++;
+			return true;
+		}
+	}
+	
+	private final AudioPlayerManager audioPlayerManager;
+	private final Scheduler encodingScheduler;
+	private final long maxBytes;
+	private final boolean offHeap;
+	//access ordered, so iteration starts at the least recently played taunt
+	private final LinkedHashMap<String, EncodedAudio> entries = new LinkedHashMap<String, EncodedAudio>(16, 0.75f, true);
+	//encodings in progress, so taunts requested again while encoding are only encoded once
+	private final Map<String, Mono<EncodedAudio>> encoding = new ConcurrentHashMap<String, Mono<EncodedAudio>>();
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private long bytesResident;
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Creates an empty cache
+	 * @param audioPlayerManager The manager used to encode taunts, its output format must be Discord's Opus format
+	 * @param encodingScheduler Where taunts are encoded, encoding blocks
+	 * @param maxBytes The most bytes of frames the cache holds
+	 * @param offHeap Whether frames are held in direct buffers, outside of the Java heap
+	 */
+	public OpusFrameCache(AudioPlayerManager audioPlayerManager, Scheduler encodingScheduler, long maxBytes, boolean offHeap)
+	{
+		this.audioPlayerManager = audioPlayerManager;
+		this.encodingScheduler = encodingScheduler;
+		this.maxBytes = maxBytes;
+		this.offHeap = offHeap;
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets the number of requests served from the cache
+	 * @return The number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Gets the number of requests that had to encode the taunt, or wait for it to be encoded
+	 * @return The number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Gets the number of taunts evicted to stay within the size bound
+	 * @return The number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	/**
+	 * Gets the memory held by cached frames
+	 * @return The size of every cached taunt in bytes
+	 */
+	public synchronized long getBytesResident() {
+		return bytesResident;
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Gets the frames of a taunt, encoding it if it isn't cached
+	 * @param taunt The taunt
+	 * @return The frames of the taunt, or an error if it couldn't be encoded
+	 */
+	public Mono<EncodedAudio> get(TauntCatalog.Taunt taunt) {
+		String key = taunt.getFile().getAbsolutePath();
+		EncodedAudio cached;
+		synchronized(this) {
+			cached = entries.get(key);
+		}
+		if(cached != null) {
+			hits.incrementAndGet();
+			return Mono.just(cached);
+		}
+		misses.incrementAndGet();
+		return encoding.computeIfAbsent(key, k -> Mono.fromCallable(() -> encode(taunt.getFile()))
+				.subscribeOn(encodingScheduler)
+				.doOnNext(audio -> put(key, audio))
+				.doFinally(signal -> encoding.remove(key))
+				.cache());
+	}
+	
+	private synchronized void put(String key, EncodedAudio audio) {
+		//a taunt larger than the whole cache is played but never cached
+		if(audio.getSize() > maxBytes) return;
+		EncodedAudio previous = entries.put(key, audio);
+		if(previous != null) bytesResident -= previous.getSize();
+		bytesResident += audio.getSize();
+		Iterator<EncodedAudio> eldest = entries.values().iterator();
+		while(bytesResident > maxBytes && eldest.hasNext()) {
+			EncodedAudio evicted = eldest.next();
+			eldest.remove();
+			bytesResident -= evicted.getSize();
+			evictions.incrementAndGet();
+		}
+	}
+	
+	//plays the file on a player of its own as fast as LavaPlayer can decode it, keeping every frame
+	private EncodedAudio encode(File file) throws Exception {
+		long start = System.currentTimeMillis();
+		CompletableFuture<AudioTrack> loaded = new CompletableFuture<AudioTrack>();
+		audioPlayerManager.loadItem(file.getAbsolutePath(), new AudioLoadResultHandler() {
+			@Override
+			public void trackLoaded(AudioTrack track) {
+				loaded.complete(track);
+			}
+			
+			@Override
+			public void playlistLoaded(AudioPlaylist playlist) {
+				loaded.completeExceptionally(new IllegalArgumentException(file + " is a playlist"));
+			}
+			
+			@Override
+			public void noMatches() {
+				loaded.completeExceptionally(new IllegalArgumentException(file + " is not a recognized audio file"));
+			}
+			
+			@Override
+			public void loadFailed(FriendlyException e) {
+				loaded.completeExceptionally(e);
+			}
+		});
+		AudioTrack track = loaded.get(FRAME_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		
+		AudioPlayer player = audioPlayerManager.createPlayer();
+		AtomicBoolean ended = new AtomicBoolean(false);
+		player.addListener(new AudioEventAdapter() {
+			@Override
+			public void onTrackEnd(AudioPlayer endedPlayer, AudioTrack endedTrack, AudioTrackEndReason endReason) {
+				ended.set(true);
+			}
+		});
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize());
+			MutableAudioFrame frame = new MutableAudioFrame();
+			frame.setBuffer(buffer);
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			int[] offsets = new int[256];
+			int frames = 0;
+			player.playTrack(track);
+			while(!ended.get()) {
+				boolean provided;
+				try {
+					provided = player.provide(frame, FRAME_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+				} catch(TimeoutException e) {
+					if(ended.get()) break;
+					throw e;
+				}
+				if(!provided) continue;
+				buffer.flip();
+				data.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+				buffer.clear();
+				if(frames + 2 > offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+				offsets[++frames] = data.size();
+			}
+			byte[] bytes = data.toByteArray();
+			ByteBuffer packed = offHeap ? ByteBuffer.allocateDirect(bytes.length) : ByteBuffer.allocate(bytes.length);
+			packed.put(bytes).flip();
+			EncodedAudio audio = new EncodedAudio(packed.asReadOnlyBuffer(), Arrays.copyOf(offsets, frames + 1));
+			logger.debug("Encoded " + file + " into " + frames + " frames, " + bytes.length + " bytes in " + (System.currentTimeMillis() - start) + "ms");
+			return audio;
+		} finally {
+			player.destroy();
+		}
+	}
+	
+	/**
+	 * Logs the cache's counters
+	 */
+	public void logStatistics() {
+		logger.info("Opus frame cache: " + getHits() + " hits, " + getMisses() + " misses, " + getEvictions() + " evictions, " + getBytesResident() + " bytes resident");
+	}
+}
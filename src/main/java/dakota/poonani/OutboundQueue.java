@@ -0,0 +1,254 @@
+package dakota.poonani;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import discord4j.core.object.entity.MessageChannel;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+/**
+ * Sends text messages through a queue per channel, so replies never wait on each other across channels and bursts stay under Discord's rate limits.
+ * Each channel has a bucket of sends that refills over time, like Discord's own per-channel limit. While a channel waits for its bucket or for its last message,
+ * the replies queued behind it are merged into as few messages as fit under Discord's length limit, and a reply too long for one message is split.
+ * The bucket only spaces out sends ahead of time, Discord4J's router still follows the rate limit headers of every response.
+ * Messages are sent in the order they were queued. It is safe to use from any thread.
+ */
+public class OutboundQueue
+{
+	/*
+	 * Fields
+	 */
+	
+	private static Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+	
+	//Discord's limit on the length of a message
+	public static final int MAX_MESSAGE_LENGTH = 2000;
+	//Discord currently allows 5 messages per channel every 5 seconds
+	public static final int DEFAULT_BUCKET_SIZE = 5;
+	public static final long DEFAULT_BUCKET_REFILL_MILLIS = 5000;
+	private final int bucketSize;
+	private final long bucketRefillMillis;
+	
+	private static final class Reply {
+		private final String text;
+		private final boolean tts;
+		private final long queuedAt = System.currentTimeMillis();
+		private final MonoProcessor<Void> sent = MonoProcessor.create();
+		
+		private Reply(String text, boolean tts) {
+			this.text = text;
+			this.tts = tts;
+		}
+	}
+	
+	private final class ChannelQueue {
+		private final MessageChannel channel;
+		private final ArrayDeque<Reply> pending = new ArrayDeque<Reply>();
+		//when each of the last bucketSize sends started, oldest first
+		private final ArrayDeque<Long> sendTimes = new ArrayDeque<Long>();
+		private boolean sending;
+		
+		private ChannelQueue(MessageChannel channel) {
+			this.channel = channel;
+		}
+		
+		//the pieces of a split reply are queued together, so nothing is sent between them
+		private synchronized void add(List<Reply> replies) {
+			pending.addAll(replies);
+			depth.addAndGet(replies.size());
+			if(!sending) drain();
+		}
+		
+		//sends the next merged message, or waits for the bucket to refill
+		private synchronized void drain() {
+			if(pending.isEmpty()) {
+				sending = false;
+				return;
+			}
+			sending = true;
+			long now = System.currentTimeMillis();
+			while(!sendTimes.isEmpty() && now - sendTimes.peek() >= bucketRefillMillis) sendTimes.poll();
+			if(sendTimes.size() >= bucketSize) {
+				Mono.delay(Duration.ofMillis(bucketRefillMillis - (now - sendTimes.peek()))).subscribe(tick -> drain());
+				return;
+			}
+			sendTimes.add(now);
+			
+			List<Reply> batch = new ArrayList<Reply>();
+			StringBuilder text = new StringBuilder(pending.peek().text);
+			boolean tts = pending.peek().tts;
+			batch.add(pending.poll());
+			//replies can only share a message if they agree on text to speech
+			while(!pending.isEmpty() && pending.peek().tts == tts && text.length() + 1 + pending.peek().text.length() <= MAX_MESSAGE_LENGTH) {
+				text.append('\n').append(pending.peek().text);
+				batch.add(pending.poll());
+			}
+			depth.addAndGet(-batch.size());
+			for(Reply reply : batch) recordWait(now - reply.queuedAt);
+			messagesSent.incrementAndGet();
+			repliesSent.addAndGet(batch.size());
+			
+			String content = text.toString();
+			channel.createMessage(spec -> spec.setContent(content).setTts(tts)).subscribe(
+					message -> {},
+					error -> {
+						logger.warn("Sending a message to channel " + channel.getId().asString() + " failed: " + error.getMessage());
+						for(Reply reply : batch) reply.sent.onError(error);
+						drain();
+					},
+					() -> {
+						for(Reply reply : batch) reply.sent.onComplete();
+						drain();
+					});
+		}
+	}
+	
+	//channels are never removed, a channel's queue is only a few fields once it's empty
+	private final Map<Long, ChannelQueue> channels = new ConcurrentHashMap<Long, ChannelQueue>();
+	
+	private final AtomicInteger depth = new AtomicInteger();
+	private final AtomicLong messagesSent = new AtomicLong();
+	private final AtomicLong repliesSent = new AtomicLong();
+	private final AtomicLong totalWaitMillis = new AtomicLong();
+	private final AtomicLong maxWaitMillis = new AtomicLong();
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Creates an empty queue
+	 * @param bucketSize The most messages sent to a channel within bucketRefillMillis
+	 * @param bucketRefillMillis How long a send counts against its channel's bucket
+	 */
+	public OutboundQueue(int bucketSize, long bucketRefillMillis)
+	{
+		if(bucketSize < 1) throw new IllegalArgumentException("The bucket must hold at least one message, was " + bucketSize);
+		this.bucketSize = bucketSize;
+		this.bucketRefillMillis = bucketRefillMillis;
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets the number of replies waiting to be sent, over every channel
+	 * @return The number of replies waiting to be sent
+	 */
+	public int getDepth() {
+		return depth.get();
+	}
+	
+	/**
+	 * Gets the number of messages sent
+	 * @return The number of messages sent
+	 */
+	public long getMessagesSent() {
+		return messagesSent.get();
+	}
+	
+	/**
+	 * Gets the number of replies sent, several of which may have been merged into one message
+	 * @return The number of replies sent
+	 */
+	public long getRepliesSent() {
+		return repliesSent.get();
+	}
+	
+	/**
+	 * Gets the average time replies waited in the queue before being sent
+	 * @return The average wait in milliseconds
+	 */
+	public double getAverageWaitMillis() {
+		long replies = repliesSent.get();
+		return replies == 0 ? 0 : (double) totalWaitMillis.get() / replies;
+	}
+	
+	/**
+	 * Gets the longest time a reply waited in the queue before being sent
+	 * @return The longest wait in milliseconds
+	 */
+	public long getMaxWaitMillis() {
+		return maxWaitMillis.get();
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Queues a reply. It is queued right away, subscribing to the result is only needed to know when it was sent
+	 * @param channel The channel to send the reply in
+	 * @param text The text of the reply
+	 * @return Completes once the message containing the reply was sent
+	 */
+	public Mono<Void> send(MessageChannel channel, String text) {
+		return send(channel, text, false);
+	}
+	
+	/**
+	 * Queues a reply. It is queued right away, subscribing to the result is only needed to know when it was sent
+	 * @param channel The channel to send the reply in
+	 * @param text The text of the reply
+	 * @param tts Whether the reply is read out with text to speech
+	 * @return Completes once the message containing the reply was sent
+	 */
+	public Mono<Void> send(MessageChannel channel, String text, boolean tts) {
+		List<Reply> replies = new ArrayList<Reply>(1);
+		for(String piece : split(text)) replies.add(new Reply(piece, tts));
+		channels.computeIfAbsent(channel.getId().asLong(), id -> new ChannelQueue(channel)).add(replies);
+		if(replies.size() == 1) return replies.get(0).sent;
+		List<Mono<Void>> sent = new ArrayList<Mono<Void>>(replies.size());
+		for(Reply reply : replies) sent.add(reply.sent);
+		return Mono.when(sent);
+	}
+	
+	/**
+	 * Splits text into pieces that fit in a message, at the last line break before the limit where there is one
+	 * @param text The text to split
+	 * @return The pieces in order, just text if it already fits
+	 */
+	public static List<String> split(String text) {
+		List<String> pieces = new ArrayList<String>(1);
+		int start = 0;
+		while(text.length() - start > MAX_MESSAGE_LENGTH) {
+			int end = start + MAX_MESSAGE_LENGTH;
+			int newline = text.lastIndexOf('\n', end - 1);
+			if(newline > start) {
+				//the line break itself is dropped, each message already starts on a new line
+				pieces.add(text.substring(start, newline));
+				start = newline + 1;
+				continue;
+			}
+			//never cut a character outside the basic plane in half
+			if(Character.isHighSurrogate(text.charAt(end - 1))) end--;
+			pieces.add(text.substring(start, end));
+			start = end;
+		}
+		pieces.add(text.substring(start));
+		return pieces;
+	}
+	
+	private void recordWait(long waitMillis) {
+		totalWaitMillis.addAndGet(waitMillis);
+		maxWaitMillis.accumulateAndGet(waitMillis, Math::max);
+	}
+	
+	/**
+	 * Logs the queue's statistics
+	 */
+	public void logStatistics() {
+		logger.info("Sent " + getRepliesSent() + " replies in " + getMessagesSent() + " messages, replies waited " + getAverageWaitMillis() + "ms on average and " + getMaxWaitMillis() + "ms at most, " + getDepth() + " still queued");
+	}
+}
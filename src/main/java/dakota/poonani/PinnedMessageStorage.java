@@ -0,0 +1,181 @@
+package dakota.poonani;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import discord4j.core.object.entity.Message;
+import discord4j.core.object.entity.TextChannel;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.publisher.UnicastProcessor;
+
+/**
+ * Stores a guild's records as pinned messages in its storage channel, one message per record.
+ * Writes are buffered for a short window and coalesced before being sent: only the last write to a record is sent, a record that is stored and removed within the window is never sent at all,
+ * and a record whose message already has the same content isn't edited. Flushes are sent in order, so a record is never removed before its message exists.
+ * Every write costs at least one rate limited REST call, so this is meant to mirror a local storage rather than be read from.
+ */
+public class PinnedMessageStorage implements GuildStorage
+{
+	/*
+	 * Fields
+	 */
+	
+	private static Logger logger = LoggerFactory.getLogger(PinnedMessageStorage.class);
+	
+	//how long writes are buffered before being sent
+	private static final Duration FLUSH_WINDOW = Duration.ofSeconds(2);
+	//how long closing waits for the last writes to be sent
+	private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(30);
+	
+	private final TextChannel channel;
+	//the single authoritative index of the messages holding the records, keyed by record identity. Only written by the flushes, which run one at a time
+	private final Map<String, Message> messages = new ConcurrentHashMap<String, Message>();
+	//the last write to each record since the previous flush, a null record is a removal
+	private final Map<String, StorageRecord> pending = new LinkedHashMap<String, StorageRecord>();
+	private boolean flushScheduled;
+	private final FluxSink<Mono<Void>> flushes;
+	private final MonoProcessor<Void> drained;
+	
+	private final AtomicLong writeCount = new AtomicLong();
+	private final AtomicLong callCount = new AtomicLong();
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Creates a storage over a storage channel that has already been read
+	 * @param result The result of reading the storage channel
+	 */
+	public PinnedMessageStorage(StorageChannelLoader.Result result)
+	{
+		this.channel = result.getChannel();
+		this.messages.putAll(result.getMessages());
+		UnicastProcessor<Mono<Void>> queue = UnicastProcessor.create();
+		flushes = queue.sink();
+		drained = queue.concatMap(flush -> flush.onErrorResume(e -> {
+			logger.error("Write to storage channel " + channel.getId().asLong() + " failed", e);
+			return Mono.empty();
+		})).then().toProcessor();
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets the number of writes made to this storage
+	 * @return The number of writes made
+	 */
+	public long getWriteCount() {
+		return writeCount.get();
+	}
+	
+	/**
+	 * Gets the number of REST calls the writes were coalesced into
+	 * @return The number of REST calls made
+	 */
+	public long getCallCount() {
+		return callCount.get();
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	@Override
+	public void put(StorageRecord record) {
+		buffer(record.getId(), record);
+	}
+	
+	@Override
+	public void remove(StorageRecord record) {
+		buffer(record.getId(), null);
+	}
+	
+	private synchronized void buffer(String id, StorageRecord record) {
+		writeCount.incrementAndGet();
+		pending.put(id, record);
+		if(!flushScheduled) {
+			flushScheduled = true;
+			Mono.delay(FLUSH_WINDOW).subscribe(tick -> flush());
+		}
+	}
+	
+	//hands every pending write to the ordered queue of flushes
+	private synchronized void flush() {
+		flushScheduled = false;
+		if(pending.isEmpty()) return;
+		List<Map.Entry<String, StorageRecord>> writes = new ArrayList<Map.Entry<String, StorageRecord>>(pending.entrySet());
+		pending.clear();
+		flushes.next(Mono.defer(() -> {
+			List<Mono<Void>> calls = new ArrayList<Mono<Void>>(writes.size());
+			for(Map.Entry<String, StorageRecord> write : writes) {
+				Mono<Void> call = write.getValue() == null ? send(write.getKey()) : send(write.getValue());
+				if(call != null) calls.add(call);
+			}
+			return Mono.when(calls);
+		}));
+	}
+	
+	//the call that stores a record, or null if its message is already up to date
+	private Mono<Void> send(StorageRecord record) {
+		Message existing = messages.get(record.getId());
+		String content = record.render();
+		if(existing != null) {
+			if(existing.getContent().map(content::equals).orElse(false)) return null;
+			callCount.incrementAndGet();
+			return existing.edit(spec -> spec.setContent(content))
+					.doOnNext(message -> messages.put(record.getId(), message))
+					.then();
+		}
+		callCount.addAndGet(2);
+		return channel.createMessage(content)
+				.doOnNext(message -> messages.put(record.getId(), message))
+				.flatMap(Message::pin);
+	}
+	
+	//the call that removes a record, or null if it has no message
+	private Mono<Void> send(String id) {
+		Message existing = messages.remove(id);
+		if(existing == null) return null;
+		callCount.incrementAndGet();
+		return existing.delete();
+	}
+	
+	/**
+	 * Fetches every record pinned in the storage channel. This blocks on a REST call, it's meant for migrating a guild's records to a local storage
+	 * @return Every record pinned in the storage channel
+	 */
+	@Override
+	public List<StorageRecord> load() {
+		StorageChannelLoader.Result result = StorageChannelLoader.read(channel).block();
+		messages.putAll(result.getMessages());
+		return result.getRecords();
+	}
+	
+	/**
+	 * Sends every buffered write and waits for them to be sent, then stops accepting writes
+	 */
+	@Override
+	public void close() {
+		flush();
+		flushes.complete();
+		try {
+			drained.block(CLOSE_TIMEOUT);
+		} catch(RuntimeException e) {
+			logger.error("Storage channel " + channel.getId().asLong() + " writes did not finish before closing", e);
+		}
+		logger.info("Storage channel " + channel.getId().asLong() + " coalesced " + getWriteCount() + " writes into " + getCallCount() + " REST calls");
+	}
+}
@@ -0,0 +1,186 @@
+package dakota.poonani;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fires every guild's Reminders at their due times.
+ * Reminders are kept in a single priority queue ordered by due time (the heap of a ScheduledThreadPoolExecutor), so adding and cancelling are O(log n)
+ * and the timer thread sleeps until exactly the next due reminder rather than polling.
+ * Reminders that come due together, e.g. everyone's reminders for noon, are handed to their callback as one batch. It is safe to schedule and cancel reminders from any thread.
+ */
+public class ReminderScheduler
+{
+	/*
+	 * Fields
+	 */
+	
+	private static Logger logger = LoggerFactory.getLogger(ReminderScheduler.class);
+	
+	private final ScheduledThreadPoolExecutor timer;
+	private final Map<Reminder, ScheduledFuture<?>> scheduled = new ConcurrentHashMap<Reminder, ScheduledFuture<?>>();
+	//reminders that fired in the current pass of the timer thread by their callback, delivered once the pass is done. Only touched by the timer thread
+	private final Map<Consumer<List<Reminder>>, List<Reminder>> due = new LinkedHashMap<Consumer<List<Reminder>>, List<Reminder>>();
+	private boolean deliveryScheduled;
+	private final AtomicLong batchCount = new AtomicLong();
+	
+	//firing drift, how late reminders fire compared to their due time. Reminders that were already overdue when scheduled are counted separately
+	private final AtomicLong firedCount = new AtomicLong();
+	private final AtomicLong overdueCount = new AtomicLong();
+	private final AtomicLong totalDriftMillis = new AtomicLong();
+	private final AtomicLong maxDriftMillis = new AtomicLong();
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Creates a scheduler with its own timer thread
+	 */
+	public ReminderScheduler()
+	{
+		timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "poonani-reminders");
+			thread.setDaemon(true);
+			return thread;
+		});
+		//cancelled reminders are removed from the queue immediately instead of waiting for their due time
+		timer.setRemoveOnCancelPolicy(true);
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets the number of reminders waiting to fire
+	 * @return The number of reminders waiting to fire
+	 */
+	public int getPendingCount() {
+		return scheduled.size();
+	}
+	
+	/**
+	 * Gets the number of reminders fired on time, i.e. not already overdue when scheduled
+	 * @return The number of reminders fired on time
+	 */
+	public long getFiredCount() {
+		return firedCount.get();
+	}
+	
+	/**
+	 * Gets the number of reminders that were already overdue when scheduled, e.g. because they came due while Poonani was offline
+	 * @return The number of overdue reminders
+	 */
+	public long getOverdueCount() {
+		return overdueCount.get();
+	}
+	
+	/**
+	 * Gets the average time between a reminder's due time and it firing, over the reminders fired on time
+	 * @return The average firing drift in milliseconds
+	 */
+	public double getAverageDriftMillis() {
+		long fired = firedCount.get();
+		return fired == 0 ? 0 : (double) totalDriftMillis.get() / fired;
+	}
+	
+	/**
+	 * Gets the largest time between a reminder's due time and it firing, over the reminders fired on time
+	 * @return The largest firing drift in milliseconds
+	 */
+	public long getMaxDriftMillis() {
+		return maxDriftMillis.get();
+	}
+	
+	/**
+	 * Gets the number of batches reminders were delivered in
+	 * @return The number of batches
+	 */
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Schedules a reminder to fire at its time. Reminders that are already due fire immediately
+	 * @param reminder The reminder to schedule
+	 * @param onDue Called on the timer thread with every reminder scheduled with the same callback that came due together, this should hand the work off rather than block
+	 */
+	public void schedule(Reminder reminder, Consumer<List<Reminder>> onDue) {
+		long dueMillis = reminder.getTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		long delay = dueMillis - System.currentTimeMillis();
+		boolean overdue = delay < 0;
+		ScheduledFuture<?> future = timer.schedule(() -> fire(reminder, dueMillis, overdue, onDue), Math.max(delay, 0), TimeUnit.MILLISECONDS);
+		ScheduledFuture<?> previous = scheduled.put(reminder, future);
+		if(previous != null) previous.cancel(false);
+		//a reminder that was already due may have fired before it was recorded
+		if(future.isDone()) scheduled.remove(reminder, future);
+	}
+	
+	/**
+	 * Cancels a reminder that hasn't fired yet
+	 * @param reminder The reminder to cancel
+	 * @return Whether the reminder was waiting to fire
+	 */
+	public boolean cancel(Reminder reminder) {
+		ScheduledFuture<?> future = scheduled.remove(reminder);
+		return future != null && future.cancel(false);
+	}
+	
+	private void fire(Reminder reminder, long dueMillis, boolean overdue, Consumer<List<Reminder>> onDue) {
+		scheduled.remove(reminder);
+		if(overdue) {
+			overdueCount.incrementAndGet();
+		} else {
+			long drift = System.currentTimeMillis() - dueMillis;
+			firedCount.incrementAndGet();
+			totalDriftMillis.addAndGet(drift);
+			maxDriftMillis.accumulateAndGet(drift, Math::max);
+			logger.debug("Reminder fired " + drift + "ms after its due time");
+		}
+		due.computeIfAbsent(onDue, callback -> new ArrayList<Reminder>()).add(reminder);
+		//queued behind every other reminder that is already due, so they all end up in the same batch
+		if(!deliveryScheduled) {
+			deliveryScheduled = true;
+			timer.execute(this::deliverDue);
+		}
+	}
+	
+	private void deliverDue() {
+		deliveryScheduled = false;
+		for(Map.Entry<Consumer<List<Reminder>>, List<Reminder>> batch : due.entrySet()) {
+			batchCount.incrementAndGet();
+			try {
+				batch.getKey().accept(batch.getValue());
+			} catch(Exception e) {
+				logger.error("Reminder delivery failed", e);
+			}
+		}
+		due.clear();
+	}
+	
+	/**
+	 * Stops the timer thread. Reminders that haven't fired are discarded
+	 */
+	public void shutdown() {
+		timer.shutdownNow();
+		scheduled.clear();
+		logger.info("Reminder scheduler stopped. Fired " + getFiredCount() + " reminders on time with average drift " + getAverageDriftMillis() + "ms and max drift " + getMaxDriftMillis() + "ms, " + getOverdueCount() + " overdue, in " + getBatchCount() + " batches");
+	}
+}
@@ -0,0 +1,335 @@
+package dakota.poonani;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Keeps the audio behind links on the local disk, so a link played again is played as a local file instead of being streamed from the network.
+ * Files are stored by the SHA-256 of their content, so links to the same audio share one file, and an index maps every link to the content it last had.
+ * The cache is bounded by the total size of its files, evicting the least recently played first. Any number of requests for a link that is downloading share the one download.
+ * Only responses that are audio are cached, links to pages such as videos are left to LavaPlayer's remote sources.
+ * Callers check for a local copy with getCached and fill the cache with fetch in the background, so a link that isn't cached yet never waits for its download.
+ */
+public class RemoteAudioCache
+{
+	/*
+	 * Fields
+	 */
+	
+	private static Logger logger = LoggerFactory.getLogger(RemoteAudioCache.class);
+	
+	private static final String INDEX_FILE = "index.properties";
+	private static final String TEMP_PREFIX = "download-";
+	private static final int TIMEOUT_MILLIS = 10000;
+	//how long a link that isn't audio is remembered, so it isn't requested again on every play
+	private static final long NOT_AUDIO_TTL_MILLIS = 10 * 60 * 1000;
+	
+	private final File directory;
+	private final long maxBytes;
+	private final Scheduler downloadScheduler;
+	//content files by hash, access ordered so iteration starts at the least recently played
+	private final LinkedHashMap<String, File> files = new LinkedHashMap<String, File>(16, 0.75f, true);
+	//the hash of the content every link last had
+	private final Properties index = new Properties();
+	private long bytesResident;
+	//links that weren't audio, until when they are skipped
+	private final Map<String, Long> notAudio = new ConcurrentHashMap<String, Long>();
+	private final Map<String, Mono<File>> downloading = new ConcurrentHashMap<String, Mono<File>>();
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong downloads = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Opens the cache in directory, creating it if necessary. Files already in it are kept, ordered by when they were last played
+	 * @param directory The directory holding the cached files
+	 * @param maxBytes The most bytes of files the cache holds
+	 * @param downloadScheduler Where downloads run, downloading blocks
+	 * @throws IOException If the directory can't be created or read
+	 */
+	public RemoteAudioCache(File directory, long maxBytes, Scheduler downloadScheduler) throws IOException
+	{
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.downloadScheduler = downloadScheduler;
+		Files.createDirectories(directory.toPath());
+		File indexFile = new File(directory, INDEX_FILE);
+		if(indexFile.exists()) {
+			try(InputStream in = new FileInputStream(indexFile)) {
+				index.load(in);
+			}
+		}
+		File[] existing = directory.listFiles(file -> file.isFile() && !file.getName().equals(INDEX_FILE));
+		Arrays.sort(existing, Comparator.comparingLong(File::lastModified));
+		for(File file : existing) {
+			//downloads interrupted by a shutdown
+			if(file.getName().startsWith(TEMP_PREFIX)) {
+				Files.deleteIfExists(file.toPath());
+				continue;
+			}
+			files.put(hashOf(file), file);
+			bytesResident += file.length();
+		}
+		index.values().removeIf(hash -> !files.containsKey(hash));
+		evict();
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets the number of requests served from the disk
+	 * @return The number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Gets the number of requests that had to download the link, or wait for it to be downloaded
+	 * @return The number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Gets the number of downloads made
+	 * @return The number of downloads
+	 */
+	public long getDownloads() {
+		return downloads.get();
+	}
+	
+	/**
+	 * Gets the number of files evicted to stay within the size bound
+	 * @return The number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	/**
+	 * Gets the size of every cached file
+	 * @return The size of every cached file in bytes
+	 */
+	public synchronized long getBytesResident() {
+		return bytesResident;
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Gets the local copy of the audio behind a link if it is already cached, without downloading anything
+	 * @param url The link
+	 * @return The local copy, or null if the link isn't cached
+	 */
+	public File getCached(String url) {
+		File cached = lookup(TrackCache.normalize(url, true));
+		if(cached != null) hits.incrementAndGet();
+		return cached;
+	}
+	
+	/**
+	 * Gets the local copy of the audio behind a link, downloading it if it isn't cached
+	 * @param url The link
+	 * @return The local copy, or empty if the link isn't audio or is too large to cache
+	 */
+	public Mono<File> fetch(String url) {
+		String key = TrackCache.normalize(url, true);
+		File cached = lookup(key);
+		if(cached != null) {
+			hits.incrementAndGet();
+			return Mono.just(cached);
+		}
+		Long skipUntil = notAudio.get(key);
+		if(skipUntil != null) {
+			if(skipUntil > System.currentTimeMillis()) return Mono.empty();
+			notAudio.remove(key, skipUntil);
+		}
+		misses.incrementAndGet();
+		return downloading.computeIfAbsent(key, k -> Mono.fromCallable(() -> download(url, key))
+				.subscribeOn(downloadScheduler)
+				.doFinally(signal -> downloading.remove(key))
+				.cache());
+	}
+	
+	private synchronized File lookup(String key) {
+		String hash = index.getProperty(key);
+		if(hash == null) return null;
+		File file = files.get(hash);
+		if(file == null || !file.exists()) {
+			index.remove(key);
+			return null;
+		}
+		//the modification time keeps the order of last use across restarts
+		file.setLastModified(System.currentTimeMillis());
+		return file;
+	}
+	
+	//streams the link into a temporary file while hashing it, then moves it to its content address. Returns null if it isn't cacheable audio
+	private File download(String url, String key) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setConnectTimeout(TIMEOUT_MILLIS);
+		connection.setReadTimeout(TIMEOUT_MILLIS);
+		connection.setRequestProperty("User-Agent", "Poonani");
+		try {
+			if(connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				throw new IOException("Downloading " + url + " failed with HTTP " + connection.getResponseCode());
+			}
+			if(!isAudio(connection.getContentType()) || connection.getContentLengthLong() > maxBytes) {
+				notAudio.put(key, System.currentTimeMillis() + NOT_AUDIO_TTL_MILLIS);
+				return null;
+			}
+			downloads.incrementAndGet();
+			File temp = File.createTempFile(TEMP_PREFIX, ".tmp", directory);
+			MessageDigest digest = sha256();
+			long size = 0;
+			try(InputStream in = new DigestInputStream(connection.getInputStream(), digest); OutputStream out = new FileOutputStream(temp)) {
+				byte[] buffer = new byte[8192];
+				int read;
+				while((read = in.read(buffer)) != -1) {
+					size += read;
+					if(size > maxBytes) break;
+					out.write(buffer, 0, read);
+				}
+			}
+			if(size > maxBytes) {
+				Files.delete(temp.toPath());
+				notAudio.put(key, System.currentTimeMillis() + NOT_AUDIO_TTL_MILLIS);
+				return null;
+			}
+			return store(key, toHex(digest.digest()) + extensionOf(url), temp);
+		} finally {
+			connection.disconnect();
+		}
+	}
+	
+	private synchronized File store(String key, String name, File temp) throws IOException {
+		String hash = hashOf(name);
+		File file = files.get(hash);
+		if(file != null && file.exists()) {
+			//another link already had the same content
+			Files.delete(temp.toPath());
+			file.setLastModified(System.currentTimeMillis());
+		} else {
+			file = new File(directory, name);
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			files.put(hash, file);
+			bytesResident += file.length();
+		}
+		index.setProperty(key, hash);
+		evict();
+		writeIndex();
+		logger.debug("Cached " + key + " as " + file.getName());
+		return file;
+	}
+	
+	//removes the least recently played files until the cache is within its bound, never the most recent one
+	private synchronized void evict() throws IOException {
+		Iterator<Map.Entry<String, File>> eldest = files.entrySet().iterator();
+		while(bytesResident > maxBytes && files.size() > 1 && eldest.hasNext()) {
+			Map.Entry<String, File> entry = eldest.next();
+			bytesResident -= entry.getValue().length();
+			Files.deleteIfExists(entry.getValue().toPath());
+			eldest.remove();
+			index.values().remove(entry.getKey());
+			evictions.incrementAndGet();
+		}
+		index.values().removeIf(hash -> !files.containsKey(hash));
+	}
+	
+	private void writeIndex() throws IOException {
+		File temp = new File(directory, INDEX_FILE + ".tmp");
+		try(OutputStream out = new FileOutputStream(temp)) {
+			index.store(out, "Links and the hash of their cached content");
+		}
+		Files.move(temp.toPath(), new File(directory, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	private static boolean isAudio(String contentType) {
+		if(contentType == null) return false;
+		String type = contentType.toLowerCase(Locale.ROOT);
+		return type.startsWith("audio/") || type.startsWith("application/ogg") || type.startsWith("application/octet-stream");
+	}
+	
+	//the extension is kept as a hint for LavaPlayer's container detection
+	private static String extensionOf(String url) {
+		String path;
+		try {
+			path = new URL(url).getPath();
+		} catch(MalformedURLException e) {
+			return "";
+		}
+		int slash = path.lastIndexOf('/');
+		int dot = path.lastIndexOf('.');
+		if(dot <= slash || path.length() - dot > 6) return "";
+		return path.substring(dot).toLowerCase(Locale.ROOT);
+	}
+	
+	private static String hashOf(File file) {
+		return hashOf(file.getName());
+	}
+	
+	private static String hashOf(String name) {
+		int dot = name.indexOf('.');
+		return dot == -1 ? name : name.substring(0, dot);
+	}
+	
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			//every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for(byte b : bytes) hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+	
+	/**
+	 * Logs the cache's counters
+	 */
+	public void logStatistics() {
+		logger.info("Remote audio cache: " + getHits() + " hits, " + getMisses() + " misses, " + getDownloads() + " downloads, " + getEvictions() + " evictions, " + getBytesResident() + " bytes resident");
+	}
+}
@@ -0,0 +1,157 @@
+package dakota.poonani;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import discord4j.core.object.entity.Member;
+import discord4j.core.object.entity.Role;
+import discord4j.core.object.util.Snowflake;
+
+/**
+ * A snapshot of the role hierarchy of a guild, so permission checks compare positions locally instead of fetching every role of the guild.
+ * Roles are ordered the way Discord orders them, by raw position and then by ID. The highest role of each member checked is remembered until their roles change.
+ * It is seeded from the guild's roles once, then kept current from role and member events. It can be read from any thread.
+ */
+public class RoleHierarchy
+{
+	/*
+	 * Fields
+	 */
+	
+	private final Map<Long, Integer> rawPositions = new ConcurrentHashMap<Long, Integer>();
+	private final Map<Long, Long> highestRoles = new ConcurrentHashMap<Long, Long>();
+	private volatile boolean seeded;
+	
+	//latency of permission checks, answered from the snapshot or by fetching the roles before it was seeded
+	private final AtomicLong snapshotChecks = new AtomicLong();
+	private final AtomicLong snapshotNanos = new AtomicLong();
+	private final AtomicLong fetchedChecks = new AtomicLong();
+	private final AtomicLong fetchedNanos = new AtomicLong();
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets whether the snapshot has been seeded, before which it can't answer checks
+	 * @return Whether the snapshot has been seeded
+	 */
+	public boolean isSeeded() {
+		return seeded;
+	}
+	
+	/**
+	 * Gets the number of checks answered from the snapshot
+	 * @return The number of checks answered from the snapshot
+	 */
+	public long getSnapshotChecks() {
+		return snapshotChecks.get();
+	}
+	
+	/**
+	 * Gets the average latency of the checks answered from the snapshot
+	 * @return The average latency in microseconds
+	 */
+	public double getAverageSnapshotMicros() {
+		long checks = snapshotChecks.get();
+		return checks == 0 ? 0 : snapshotNanos.get() / 1000.0 / checks;
+	}
+	
+	/**
+	 * Gets the number of checks that had to fetch the roles
+	 * @return The number of checks that had to fetch the roles
+	 */
+	public long getFetchedChecks() {
+		return fetchedChecks.get();
+	}
+	
+	/**
+	 * Gets the average latency of the checks that had to fetch the roles
+	 * @return The average latency in microseconds
+	 */
+	public double getAverageFetchedMicros() {
+		long checks = fetchedChecks.get();
+		return checks == 0 ? 0 : fetchedNanos.get() / 1000.0 / checks;
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Replaces the whole snapshot with every role of the guild
+	 * @param roles Every role of the guild
+	 */
+	public void seed(Iterable<Role> roles) {
+		rawPositions.clear();
+		highestRoles.clear();
+		for(Role role : roles) rawPositions.put(role.getId().asLong(), role.getRawPosition());
+		seeded = true;
+	}
+	
+	/**
+	 * Records a role that was created or changed
+	 * @param role The role
+	 */
+	public void putRole(Role role) {
+		Integer previous = rawPositions.put(role.getId().asLong(), role.getRawPosition());
+		//a move can change which role is highest for any member
+		if(previous == null || previous != role.getRawPosition()) highestRoles.clear();
+	}
+	
+	/**
+	 * Forgets a role that was deleted
+	 * @param roleId The ID of the role
+	 */
+	public void removeRole(Snowflake roleId) {
+		rawPositions.remove(roleId.asLong());
+		highestRoles.clear();
+	}
+	
+	/**
+	 * Forgets the highest role of a member whose roles changed or who left
+	 * @param memberId The ID of the member
+	 */
+	public void removeMember(Snowflake memberId) {
+		highestRoles.remove(memberId.asLong());
+	}
+	
+	/**
+	 * Returns whether a member's highest role is at or above a role. Only call this once the snapshot is seeded
+	 * @param member The member
+	 * @param roleId The ID of the role to compare against
+	 * @return Whether the member's highest role is at or above the role, false if either is unknown
+	 */
+	public boolean isAtOrAbove(Member member, Snowflake roleId) {
+		Long highest = highestRoles.get(member.getId().asLong());
+		if(highest == null) {
+			for(Snowflake memberRole : member.getRoleIds()) {
+				long candidate = memberRole.asLong();
+				if(rawPositions.containsKey(candidate) && (highest == null || compare(candidate, highest) > 0)) highest = candidate;
+			}
+			if(highest == null) return false;
+			highestRoles.put(member.getId().asLong(), highest);
+		}
+		return rawPositions.containsKey(roleId.asLong()) && compare(highest, roleId.asLong()) >= 0;
+	}
+	
+	//the same order Discord4J gives positions by
+	private int compare(long role, long other) {
+		Integer position = rawPositions.get(role);
+		Integer otherPosition = rawPositions.get(other);
+		if(position == null || otherPosition == null) return position == null ? -1 : 1;
+		int byPosition = Integer.compare(position, otherPosition);
+		return byPosition != 0 ? byPosition : Long.compare(role, other);
+	}
+	
+	/**
+	 * Records the latency of a permission check
+	 * @param nanos How long the check took
+	 * @param fromSnapshot Whether it was answered from the snapshot
+	 */
+	public void recordCheck(long nanos, boolean fromSnapshot) {
+		(fromSnapshot ? snapshotChecks : fetchedChecks).incrementAndGet();
+		(fromSnapshot ? snapshotNanos : fetchedNanos).addAndGet(nanos);
+	}
+}
@@ -0,0 +1,105 @@
+package dakota.poonani;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import discord4j.core.object.entity.Member;
+import discord4j.core.object.util.Snowflake;
+
+/**
+ * The number of members holding each role of a guild, so checking whether a role is still in use doesn't download every member.
+ * It is seeded from the guild's members once, then kept current from member and role events.
+ * It isn't thread safe, it must only be used from the guild's mailbox.
+ */
+public class RoleMemberIndex
+{
+	/*
+	 * Fields
+	 */
+	
+	//the roles of every member, to know which counts change when a member's roles are replaced
+	private final Map<Long, long[]> memberRoles = new HashMap<Long, long[]>();
+	private final Map<Long, Integer> counts = new HashMap<Long, Integer>();
+	private boolean seeded;
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets whether the index has been seeded, before which its counts can't be trusted
+	 * @return Whether the index has been seeded
+	 */
+	public boolean isSeeded() {
+		return seeded;
+	}
+	
+	/**
+	 * Gets the number of members holding a role
+	 * @param roleId The ID of the role
+	 * @return The number of members holding the role
+	 */
+	public int getMemberCount(Snowflake roleId) {
+		Integer count = counts.get(roleId.asLong());
+		return count == null ? 0 : count;
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Replaces the whole index with the roles of every member of the guild
+	 * @param members Every member of the guild
+	 */
+	public void seed(Iterable<Member> members) {
+		memberRoles.clear();
+		counts.clear();
+		for(Member member : members) putMember(member.getId(), member.getRoleIds());
+		seeded = true;
+	}
+	
+	/**
+	 * Records a member's current roles, e.g. when they join or their roles change
+	 * @param memberId The ID of the member
+	 * @param roleIds The IDs of every role the member now holds
+	 */
+	public void putMember(Snowflake memberId, Set<Snowflake> roleIds) {
+		long[] roles = new long[roleIds.size()];
+		int i = 0;
+		for(Snowflake roleId : roleIds) roles[i++] = roleId.asLong();
+		long[] previous = memberRoles.put(memberId.asLong(), roles);
+		if(previous != null) adjust(previous, -1);
+		adjust(roles, 1);
+	}
+	
+	/**
+	 * Forgets a member that left the guild
+	 * @param memberId The ID of the member
+	 */
+	public void removeMember(Snowflake memberId) {
+		long[] previous = memberRoles.remove(memberId.asLong());
+		if(previous != null) adjust(previous, -1);
+	}
+	
+	/**
+	 * Forgets a role that was deleted. Members still listing it are corrected when their roles next change
+	 * @param roleId The ID of the role
+	 */
+	public void removeRole(Snowflake roleId) {
+		counts.remove(roleId.asLong());
+	}
+	
+	private void adjust(long[] roles, int delta) {
+		for(long role : roles) {
+			Integer count = counts.get(role);
+			int next = (count == null ? 0 : count) + delta;
+			if(next > 0) {
+				counts.put(role, next);
+			} else {
+				counts.remove(role);
+			}
+		}
+	}
+}
@@ -132,78 +132,13 @@ public class Routine implements java.io.Serializable
 	 */
 	
 	/**
-	 * Returns whether the beginning of message is "phrase" followed by ' ', ',', '.', or '!'
-	 * @param message The message to check
-	 * @param phrase The phrase to look for
-	 * @return Whether the beginning of message is "phrase" followed by ' ', ',', '.', or '!'
+	 * Returns true if the routine has no whitelist, or the sender is in it
+	 * @param sender The sender of the message, null in DMs
+	 * @return True if the routine has no whitelist, or the sender is in it
 	 */
-	public boolean atBeginning(String message, String phrase)
+	public boolean isWhitelisted(Member sender)
 	{
-		if(message.length() <= phrase.length()) return false;
-		if((message.substring(0,phrase.length()) == phrase) && (message.charAt(phrase.length()) == ' ' || message.charAt(phrase.length()) == ',' || message.charAt(phrase.length()) == '.' || message.charAt(phrase.length()) == '!')) return true;
-		return false;
-	}
-
-	/**
-	 * Returns whether message contains phrase preceded by space or newline, and followed by space or punctuation
-	 * @param message The message to check
-	 * @param phrase The phrase to look for
-	 * @return Whether message contains phrase preceded by space or newline, and followed by space or punctuation
-	 */
-	public boolean atMiddle(String message, String phrase)
-	{
-		if( message.contains(' '+phrase+' ') || message.contains(' '+phrase+',') || message.contains(' '+phrase+'.') || message.contains(' '+phrase+'!')
-		|| message.contains(' '+phrase+'\n') || message.contains('\n'+phrase+' ') || message.contains('\n'+phrase+'\n') || message.contains('\n'+phrase+',')
-		|| message.contains('\n'+phrase+'.') || message.contains('\n'+phrase+'!')
-		)	return true;
-		return false;
-	}
-
-	/**
-	 * Returns whether the end of message is " phrase", " phrase.", or " phrase!"
-	 * @param message The message to check
-	 * @param phrase The phrase to look for
-	 * @return Whether the end of message is " phrase", " phrase.", or " phrase!"
-	 */
-	public boolean atEnd(String message, String phrase)
-	{
-		if(message.length() <= phrase.length()+1) return false;
-		String periodPhrase = phrase + '.';
-		String exPhrase = phrase + '!';
-		if((message.substring(message.length()-phrase.length(),message.length()-1).equalsIgnoreCase(phrase)) || (message.substring(message.length()-phrase.length()-1,message.length()-1).equalsIgnoreCase(periodPhrase)) || (message.substring(message.length()-phrase.length()-1,message.length()-1).equalsIgnoreCase(exPhrase))) return true;
-		return false;
-	}
-
-	/**
-	 * Returns whether message consists of phrase, begins with phrase, contains " phrase" followed by ' ', ',', '.', or '!', or ends with phrase followed by nothing, '.' or '!'
-	 * @param message The message to check
-	 * @param phrase The phrase to look for
-	 * @return Whether message consists of phrase, begins with phrase, contains " phrase" followed by ' ', ',', '.', or '!', or ends with phrase followed by nothing, '.' or '!'
-	 */
-	public boolean phraseExists(String message, String phrase) //
-	{
-		if(!message.contains(phrase)) return false; //avoid doing the numerous following searches if phrase is totally nonexistent
-		return (message.equalsIgnoreCase(phrase) || atBeginning(message, phrase) || atMiddle(message, phrase) || atEnd(message, phrase));
-	}
-	
-	/**
-	 * Returns true if message contains a trigger using the appropriate logic based on checkPhraseExists, and the sender is in the whitelist
-	 * @param message The message to check
-	 * @param sender The sender of the message
-	 * @return True if message contains a trigger using the appropriate logic based on checkPhraseExists, and the sender is in the whitelist
-	 */
-	public boolean findTrigger(String message, Member sender)
-	{
-		if(users.size() > 0 || !users.containsKey(sender.getId().asLong())) {
-			return false;
-		}
-		for(String t : triggers)
-		{
-			if(checkPhraseExists && phraseExists(message, t) || (!checkPhraseExists && message.contains(t)))
-			{
-				return true;
-			}
-		}
-		return false;
+		if(users.isEmpty()) return true;
+		return sender != null && users.containsKey(sender.getId().asLong());
 	}
 }
\ No newline at end of file
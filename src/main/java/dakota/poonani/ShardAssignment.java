@@ -0,0 +1,140 @@
+package dakota.poonani;
+
+import java.util.BitSet;
+
+/**
+ * Which of the bot's gateway shards this process runs. Discord sends each guild to exactly one shard, picked from the guild's ID,
+ * so processes running different shards of the same shard count split the guilds between them without talking to each other.
+ * A single process may run several shards, e.g. to spread its guilds over several event loops.
+ */
+public class ShardAssignment
+{
+	/*
+	 * Fields
+	 */
+	
+	private final int shardCount;
+	private final BitSet indexes = new BitSet();
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Creates the assignment of some shards to this process
+	 * @param shardCount The number of shards the bot is split into, over every process
+	 * @param indexes The indexes of the shards this process runs, from 0 to shardCount - 1
+	 */
+	public ShardAssignment(int shardCount, int... indexes)
+	{
+		if(shardCount < 1) throw new IllegalArgumentException("The shard count must be at least 1, was " + shardCount);
+		if(indexes.length == 0) throw new IllegalArgumentException("At least one shard must be run");
+		this.shardCount = shardCount;
+		for(int index : indexes) {
+			if(index < 0 || index >= shardCount) throw new IllegalArgumentException("Shard " + index + " doesn't exist with " + shardCount + " shards");
+			this.indexes.set(index);
+		}
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets the number of shards the bot is split into, over every process
+	 * @return The shard count
+	 */
+	public int getShardCount() {
+		return shardCount;
+	}
+	
+	/**
+	 * Gets the indexes of the shards this process runs
+	 * @return The shard indexes in ascending order
+	 */
+	public int[] getIndexes() {
+		return indexes.stream().toArray();
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Parses the shards to run from a list such as "0,2" or "4-7". No list means every shard
+	 * @param shardCount The number of shards the bot is split into, over every process
+	 * @param indexes Comma separated shard indexes and ranges of indexes, or null
+	 * @return The assignment
+	 */
+	public static ShardAssignment parse(int shardCount, String indexes) {
+		if(indexes == null || indexes.trim().isEmpty()) return all(shardCount);
+		BitSet parsed = new BitSet();
+		for(String part : indexes.split(",")) {
+			part = part.trim();
+			int dash = part.indexOf('-', 1);
+			try {
+				int first = Integer.parseInt(dash < 0 ? part : part.substring(0, dash).trim());
+				int last = dash < 0 ? first : Integer.parseInt(part.substring(dash + 1).trim());
+				if(last < first) throw new IllegalArgumentException("The shard range " + part + " is backwards");
+				parsed.set(first, last + 1);
+			} catch(NumberFormatException | IndexOutOfBoundsException e) {
+				throw new IllegalArgumentException("Invalid shard index " + part);
+			}
+		}
+		return new ShardAssignment(shardCount, parsed.stream().toArray());
+	}
+	
+	/**
+	 * Creates the assignment of every shard to this process
+	 * @param shardCount The number of shards the bot is split into
+	 * @return The assignment
+	 */
+	public static ShardAssignment all(int shardCount) {
+		int[] indexes = new int[Math.max(shardCount, 0)];
+		for(int i = 0; i < indexes.length; i++) indexes[i] = i;
+		return new ShardAssignment(shardCount, indexes);
+	}
+	
+	/**
+	 * Returns the shard Discord sends a guild to, the guild's creation timestamp modulo the shard count
+	 * @param guildId The ID of the guild
+	 * @param shardCount The number of shards
+	 * @return The index of the shard
+	 */
+	public static int shardOf(long guildId, int shardCount) {
+		return (int) ((guildId >> 22) % shardCount);
+	}
+	
+	/**
+	 * Returns whether this process runs a shard
+	 * @param shardIndex The index of the shard
+	 * @return Whether this process runs the shard
+	 */
+	public boolean runs(int shardIndex) {
+		return shardIndex >= 0 && shardIndex < shardCount && indexes.get(shardIndex);
+	}
+	
+	/**
+	 * Returns whether a guild belongs to any of the shards this process runs
+	 * @param guildId The ID of the guild
+	 * @return Whether this process serves the guild
+	 */
+	public boolean owns(long guildId) {
+		return runs(shardOf(guildId, shardCount));
+	}
+	
+	/**
+	 * Returns whether a guild belongs to a particular shard of this process
+	 * @param shardIndex The index of the shard
+	 * @param guildId The ID of the guild
+	 * @return Whether the shard serves the guild
+	 */
+	public boolean owns(int shardIndex, long guildId) {
+		return runs(shardIndex) && shardOf(guildId, shardCount) == shardIndex;
+	}
+	
+	@Override
+	public String toString() {
+		return indexes.toString() + " of " + shardCount;
+	}
+}
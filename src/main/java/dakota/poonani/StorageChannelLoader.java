@@ -0,0 +1,192 @@
+package dakota.poonani;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import discord4j.core.object.entity.Guild;
+import discord4j.core.object.entity.Message;
+import discord4j.core.object.entity.Role;
+import discord4j.core.object.entity.TextChannel;
+import discord4j.core.object.util.Snowflake;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Reads a guild's storage channel in a single pass: the pinned messages are fetched once, each is dispatched by its header to the parser registered for its type,
+ * and every role they reference is resolved with a single fetch of the guild's roles rather than one request per record.
+ */
+public class StorageChannelLoader
+{
+	/*
+	 * Fields
+	 */
+	
+	private static Logger logger = LoggerFactory.getLogger(StorageChannelLoader.class);
+	
+	/**
+	 * Everything read from a storage channel
+	 */
+	public static final class Result {
+		private final TextChannel channel;
+		private final List<StorageRecord> records;
+		private final Map<String, Message> messages;
+		private final long elapsedMillis;
+		
+		private Result(TextChannel channel, List<StorageRecord> records, Map<String, Message> messages, long elapsedMillis) {
+			this.channel = channel;
+			this.records = records;
+			this.messages = messages;
+			this.elapsedMillis = elapsedMillis;
+		}
+		
+		/**
+		 * Gets the storage channel
+		 * @return The storage channel
+		 */
+		public TextChannel getChannel() {
+			return channel;
+		}
+		
+		/**
+		 * Gets every record pinned in the storage channel, in the order they were pinned
+		 * @return Every record pinned in the storage channel
+		 */
+		public List<StorageRecord> getRecords() {
+			return records;
+		}
+		
+		/**
+		 * Gets the messages holding the records, keyed by record identity
+		 * @return The messages holding the records
+		 */
+		public Map<String, Message> getMessages() {
+			return messages;
+		}
+		
+		/**
+		 * Gets how long finding and reading the storage channel took
+		 * @return How long loading took in milliseconds
+		 */
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+	}
+	
+	private final Map<StorageRecord.Type, Consumer<StorageRecord>> parsers = new EnumMap<StorageRecord.Type, Consumer<StorageRecord>>(StorageRecord.Type.class);
+	private final Map<StorageRecord.Type, Consumer<Role>> roleParsers = new EnumMap<StorageRecord.Type, Consumer<Role>>(StorageRecord.Type.class);
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Sets the parser for the records of a type
+	 * @param type The type of record
+	 * @param parser Called with every record of the type, in the order they were stored
+	 * @return This loader
+	 */
+	public StorageChannelLoader on(StorageRecord.Type type, Consumer<StorageRecord> parser) {
+		parsers.put(type, parser);
+		return this;
+	}
+	
+	/**
+	 * Sets the parser for the records of a type whose content is a role ID. The roles are resolved in a single batch after every other record is parsed
+	 * @param type The type of record
+	 * @param parser Called with the role of every record of the type that still exists
+	 * @return This loader
+	 */
+	public StorageChannelLoader onRole(StorageRecord.Type type, Consumer<Role> parser) {
+		roleParsers.put(type, parser);
+		return this;
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Finds a guild's storage channel by name
+	 * @param guild The guild
+	 * @param channelName The name of the storage channel
+	 * @return The storage channel, or empty if the guild has none
+	 */
+	public static Mono<TextChannel> findChannel(Guild guild, String channelName) {
+		return guild.getChannels().ofType(TextChannel.class).filter(channel -> channel.getName().equals(channelName)).next();
+	}
+	
+	/**
+	 * Fetches the pinned messages of a storage channel once and parses every record in them, without dispatching them
+	 * @param channel The storage channel
+	 * @return Everything read from the channel
+	 */
+	public static Mono<Result> read(TextChannel channel) {
+		long start = System.currentTimeMillis();
+		return channel.getPinnedMessages().collectList().map(messages -> {
+			//pinned messages are returned newest first
+			Collections.reverse(messages);
+			List<StorageRecord> records = new ArrayList<StorageRecord>(messages.size());
+			Map<String, Message> recordMessages = new HashMap<String, Message>();
+			for(Message message : messages) {
+				StorageRecord record = message.getContent().map(StorageRecord::parse).orElse(null);
+				if(record == null) continue;
+				records.add(record);
+				recordMessages.put(record.getId(), message);
+			}
+			return new Result(channel, records, recordMessages, System.currentTimeMillis() - start);
+		});
+	}
+	
+	/**
+	 * Dispatches records to the registered parsers, resolving the roles of role records with a single fetch of the guild's roles.
+	 * Records that aren't role records are parsed immediately on the calling thread, role parsers are called on lane
+	 * @param guild The guild the records belong to
+	 * @param records The records to dispatch
+	 * @param lane Where the role parsers are called
+	 * @return The completion of the role resolution, emitting the number of records that could not be applied. The roles are fetched on each subscription, so subscribing again after an error retries only the fetch
+	 */
+	public Mono<Integer> dispatch(Guild guild, List<StorageRecord> records, Scheduler lane) {
+		int failed = 0;
+		Map<Snowflake, List<StorageRecord.Type>> roleRecords = new HashMap<Snowflake, List<StorageRecord.Type>>();
+		for(StorageRecord record : records) {
+			try {
+				if(roleParsers.containsKey(record.getType())) {
+					roleRecords.computeIfAbsent(Snowflake.of(record.getContent()), id -> new ArrayList<StorageRecord.Type>(1)).add(record.getType());
+				} else if(parsers.containsKey(record.getType())) {
+					parsers.get(record.getType()).accept(record);
+				}
+			} catch(RuntimeException e) {
+				logger.error("Guild " + guild.getId().asLong() + ": Stored " + record.getType().getHeader() + " record failed to parse:\n" + e.getMessage());
+				failed++;
+			}
+		}
+		if(roleRecords.isEmpty()) return Mono.just(failed);
+		final int parseFailures = failed;
+		return guild.getRoles().filter(role -> roleRecords.containsKey(role.getId())).collectList().publishOn(lane).map(roles -> {
+			Set<Snowflake> found = new HashSet<Snowflake>();
+			for(Role role : roles) {
+				found.add(role.getId());
+				for(StorageRecord.Type type : roleRecords.get(role.getId())) roleParsers.get(type).accept(role);
+			}
+			//roles that were deleted since they were stored
+			int missing = 0;
+			for(Map.Entry<Snowflake, List<StorageRecord.Type>> entry : roleRecords.entrySet()) {
+				if(!found.contains(entry.getKey())) {
+					logger.warn("Guild " + guild.getId().asLong() + ": Stored role " + entry.getKey().asLong() + " no longer exists");
+					missing += entry.getValue().size();
+				}
+			}
+			return parseFailures + missing;
+		});
+	}
+}
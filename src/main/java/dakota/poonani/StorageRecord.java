@@ -0,0 +1,133 @@
+package dakota.poonani;
+
+/**
+ * A single piece of stored guild information, in the same format as the pinned messages of the storage channel:
+ * HEADER:
+ * content
+ * Routines, reminders and color roles are identified by their content, the other types only ever have one record per guild.
+ */
+public class StorageRecord
+{
+	/*
+	 * Fields
+	 */
+	
+	/**
+	 * The kinds of stored information, along with the header that begins their messages
+	 */
+	public enum Type {
+		ADMIN_ROLE("ADMIN ROLE:", true),
+		COLOR_PERM_ROLE("COLOR PERM ROLE:", true),
+		COLOR_ROLE("COLOR ROLE:", false),
+		ROUTINE("ROUTINE:", false),
+		REMINDER("REMINDER:", false),
+		USER_JOIN_MESSAGE("USER JOIN MESSAGE:", true);
+		
+		private final String header;
+		private final boolean singleton;
+		
+		private Type(String header, boolean singleton) {
+			this.header = header;
+			this.singleton = singleton;
+		}
+		
+		/**
+		 * Gets the header that begins messages of this type
+		 * @return The header that begins messages of this type
+		 */
+		public String getHeader() {
+			return header;
+		}
+		
+		/**
+		 * Gets whether a guild only has one record of this type
+		 * @return Whether a guild only has one record of this type
+		 */
+		public boolean isSingleton() {
+			return singleton;
+		}
+	}
+	
+	private final Type type;
+	private final String key;
+	private final String content;
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Creates a record
+	 * @param type The kind of information stored
+	 * @param content The stored information, without the header
+	 */
+	public StorageRecord(Type type, String content)
+	{
+		this.type = type;
+		this.content = content;
+		this.key = type.isSingleton() ? "" : content;
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets the kind of information stored
+	 * @return The kind of information stored
+	 */
+	public Type getType() {
+		return type;
+	}
+	
+	/**
+	 * Gets the key identifying this record among the records of its type
+	 * @return The key identifying this record
+	 */
+	public String getKey() {
+		return key;
+	}
+	
+	/**
+	 * Gets the stored information, without the header
+	 * @return The stored information
+	 */
+	public String getContent() {
+		return content;
+	}
+	
+	/**
+	 * Gets the identity of this record among every record of the guild. A newer record with the same identity replaces an older one
+	 * @return The identity of this record
+	 */
+	public String getId() {
+		return type.name() + ":" + key;
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Renders the record as a storage channel message
+	 * @return The header, a newline, then the content
+	 */
+	public String render() {
+		return type.getHeader() + "\n" + content;
+	}
+	
+	/**
+	 * Parses a storage channel message
+	 * @param message The content of the message
+	 * @return The record, or null if the message doesn't begin with a known header
+	 */
+	public static StorageRecord parse(String message) {
+		int newline = message.indexOf('\n');
+		if(newline == -1) return null;
+		String header = message.substring(0, newline);
+		for(Type type : Type.values()) {
+			if(type.getHeader().equals(header)) return new StorageRecord(type, message.substring(newline+1));
+		}
+		return null;
+	}
+}
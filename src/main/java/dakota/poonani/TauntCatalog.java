@@ -0,0 +1,285 @@
+package dakota.poonani;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+
+/**
+ * Every taunt that can be played, built once at startup from a directory on the classpath or an external directory.
+ * Taunts are looked up by their file name without its extension, ignoring case. The listing sent by :taunts: is rendered once, already split into messages that fit Discord's limit.
+ * Taunts packaged in a jar are extracted to a temporary directory, since LavaPlayer can only play local files.
+ */
+public class TauntCatalog
+{
+	/*
+	 * Fields
+	 */
+	
+	private static Logger logger = LoggerFactory.getLogger(TauntCatalog.class);
+	
+	private static final String LISTING_HEADER = "Available taunts are:\n";
+	//how long probing the duration of every taunt may take at startup
+	private static final long PROBE_TIMEOUT_SECONDS = 30;
+	
+	/**
+	 * A single playable sound file
+	 */
+	public static final class Taunt {
+		private final String name;
+		private final File file;
+		private final long size;
+		private long duration;
+		
+		private Taunt(String name, File file) {
+			this.name = name;
+			this.file = file;
+			this.size = file.length();
+		}
+		
+		/**
+		 * Gets the name the taunt is played by, its file name without the extension
+		 * @return The name of the taunt
+		 */
+		public String getName() {
+			return name;
+		}
+		
+		/**
+		 * Gets the local file of the taunt
+		 * @return The local file of the taunt
+		 */
+		public File getFile() {
+			return file;
+		}
+		
+		/**
+		 * Gets the size of the taunt's file
+		 * @return The size of the file in bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+		
+		/**
+		 * Gets the duration of the taunt
+		 * @return The duration in milliseconds, 0 if it couldn't be probed
+		 */
+		public long getDuration() {
+			return duration;
+		}
+	}
+	
+	//taunts by their lowercased name, sorted for the listing
+	private final Map<String, Taunt> taunts = new TreeMap<String, Taunt>();
+	private final List<String> listing = new ArrayList<String>();
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Builds a catalog of every file directly in directory
+	 * @param directory The local directory holding the taunts
+	 */
+	private TauntCatalog(File directory)
+	{
+		File[] files = directory.listFiles(File::isFile);
+		if(files == null) {
+			logger.warn("Taunt directory " + directory + " could not be read, no taunts are available");
+			return;
+		}
+		for(File file : files) {
+			int extension = file.getName().lastIndexOf('.');
+			String name = extension > 0 ? file.getName().substring(0, extension) : file.getName();
+			Taunt duplicate = taunts.put(name.toLowerCase(Locale.ROOT), new Taunt(name, file));
+			if(duplicate != null) logger.warn("Taunt " + file + " has the same name as " + duplicate.getFile() + ", only one of them can be played");
+		}
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Looks up a taunt
+	 * @param name The name of the taunt, ignoring case
+	 * @return The taunt, or null if there isn't one by that name
+	 */
+	public Taunt get(String name) {
+		return taunts.get(name.trim().toLowerCase(Locale.ROOT));
+	}
+	
+	/**
+	 * Gets every taunt, sorted by name
+	 * @return Every taunt
+	 */
+	public Collection<Taunt> getTaunts() {
+		return Collections.unmodifiableCollection(taunts.values());
+	}
+	
+	/**
+	 * Gets the listing of every taunt, split into messages that fit Discord's limit
+	 * @return The messages of the listing
+	 */
+	public List<String> getListing() {
+		return Collections.unmodifiableList(listing);
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Builds the catalog from an external directory if one is given, otherwise from a directory on the classpath
+	 * @param externalDirectory A local directory holding the taunts, or null
+	 * @param classpathDirectory The directory on the classpath holding the taunts, e.g. "taunts"
+	 * @param audioPlayerManager The manager used to probe the duration of every taunt
+	 * @return The catalog
+	 */
+	public static TauntCatalog load(String externalDirectory, String classpathDirectory, AudioPlayerManager audioPlayerManager) {
+		long start = System.currentTimeMillis();
+		TauntCatalog catalog;
+		if(externalDirectory != null) {
+			catalog = new TauntCatalog(new File(externalDirectory));
+		} else {
+			catalog = new TauntCatalog(resolveClasspathDirectory(classpathDirectory));
+		}
+		catalog.probeDurations(audioPlayerManager);
+		catalog.renderListing();
+		logger.info("Loaded " + catalog.taunts.size() + " taunts in " + (System.currentTimeMillis() - start) + "ms");
+		return catalog;
+	}
+	
+	//the classpath directory as a local directory, extracting it first if it's inside a jar
+	private static File resolveClasspathDirectory(String classpathDirectory) {
+		URL url = TauntCatalog.class.getClassLoader().getResource(classpathDirectory);
+		if(url == null) {
+			logger.warn("Taunt directory " + classpathDirectory + " is not on the classpath, no taunts are available");
+			return new File(classpathDirectory);
+		}
+		try {
+			if(url.getProtocol().equals("jar")) {
+				JarURLConnection connection = (JarURLConnection) url.openConnection();
+				//the jar is closed after extracting, so it mustn't be the one shared through the connection cache
+				connection.setUseCaches(false);
+				return extract(connection, classpathDirectory);
+			}
+			return new File(url.toURI());
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		} catch(URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static File extract(JarURLConnection connection, String classpathDirectory) throws IOException {
+		Path directory = Files.createTempDirectory("poonani-taunts");
+		directory.toFile().deleteOnExit();
+		String prefix = classpathDirectory.endsWith("/") ? classpathDirectory : classpathDirectory + "/";
+		try(JarFile jar = connection.getJarFile()) {
+			Enumeration<JarEntry> entries = jar.entries();
+			while(entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				String name = entry.getName().substring(Math.min(prefix.length(), entry.getName().length()));
+				//only the files directly in the directory
+				if(entry.isDirectory() || !entry.getName().startsWith(prefix) || name.contains("/")) continue;
+				Path target = directory.resolve(name);
+				try(InputStream in = jar.getInputStream(entry)) {
+					Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+				}
+				target.toFile().deleteOnExit();
+			}
+		}
+		return directory.toFile();
+	}
+	
+	//loads every taunt once in parallel, only to read its duration
+	private void probeDurations(AudioPlayerManager audioPlayerManager) {
+		Map<Taunt, Future<Void>> probes = new HashMap<Taunt, Future<Void>>();
+		for(Taunt taunt : taunts.values()) {
+			probes.put(taunt, audioPlayerManager.loadItem(taunt.getFile().getAbsolutePath(), new AudioLoadResultHandler() {
+				@Override
+				public void trackLoaded(AudioTrack track) {
+					taunt.duration = track.getDuration();
+				}
+				
+				@Override
+				public void playlistLoaded(AudioPlaylist playlist) {}
+				
+				@Override
+				public void noMatches() {
+					logger.warn("Taunt " + taunt.getFile() + " is not a recognized audio file");
+				}
+				
+				@Override
+				public void loadFailed(FriendlyException e) {
+					logger.warn("Taunt " + taunt.getFile() + " failed to load: " + e.getMessage());
+				}
+			}));
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(PROBE_TIMEOUT_SECONDS);
+		for(Map.Entry<Taunt, Future<Void>> probe : probes.entrySet()) {
+			try {
+				probe.getValue().get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+			} catch(TimeoutException e) {
+				logger.warn("Probing the duration of " + probe.getKey().getFile() + " timed out");
+			} catch(ExecutionException e) {
+				logger.warn("Probing the duration of " + probe.getKey().getFile() + " failed", e);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	private void renderListing() {
+		StringBuilder message = new StringBuilder(LISTING_HEADER);
+		for(Taunt taunt : taunts.values()) {
+			String line = taunt.getName();
+			if(taunt.getDuration() > 0) line += " (" + formatDuration(taunt.getDuration()) + ")";
+			if(message.length() + line.length() + 1 > OutboundQueue.MAX_MESSAGE_LENGTH) {
+				listing.add(message.toString());
+				message.setLength(0);
+			}
+			if(message.length() > 0 && message.charAt(message.length()-1) != '\n') message.append('\n');
+			message.append(line);
+		}
+		listing.add(message.toString());
+	}
+	
+	private static String formatDuration(long millis) {
+		long seconds = (millis + 500) / 1000;
+		return seconds / 60 + ":" + String.format("%02d", seconds % 60);
+	}
+}
@@ -0,0 +1,247 @@
+package dakota.poonani;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Remembers what every :play: source resolved to, so LavaPlayer only probes a source again once its entry expires or is evicted.
+ * Resolved tracks are kept as prototypes and every request is served its own clones. Sources that had no matches or failed to load are cached too, for a shorter time,
+ * so a bad link repeated over and over doesn't reach the source managers every time.
+ */
+public class TrackCache
+{
+	/*
+	 * Fields
+	 */
+	
+	private static Logger logger = LoggerFactory.getLogger(TrackCache.class);
+	
+	//how long remote sources are trusted before being probed again, they can change or disappear
+	private static final long REMOTE_TTL_MILLIS = 10 * 60 * 1000;
+	//how long a source that had no matches or failed to load is remembered
+	private static final long NEGATIVE_TTL_MILLIS = 60 * 1000;
+	
+	/**
+	 * What a source resolved to
+	 */
+	public static final class Resolution {
+		private final List<AudioTrack> prototypes;
+		private final boolean noMatches;
+		private final String error;
+		private final long expiresAt;
+		
+		private Resolution(List<AudioTrack> prototypes, boolean noMatches, String error, long expiresAt) {
+			this.prototypes = prototypes;
+			this.noMatches = noMatches;
+			this.error = error;
+			this.expiresAt = expiresAt;
+		}
+		
+		/**
+		 * Gets fresh copies of the resolved tracks, which can each be played once
+		 * @return The resolved tracks, empty if the source had no matches or failed
+		 */
+		public List<AudioTrack> getTracks() {
+			List<AudioTrack> tracks = new ArrayList<AudioTrack>(prototypes.size());
+			for(AudioTrack prototype : prototypes) tracks.add(prototype.makeClone());
+			return tracks;
+		}
+		
+		/**
+		 * Gets a fresh copy of one resolved track, so long playlists can be copied a few tracks at a time
+		 * @param index The index of the track
+		 * @return The track, which can be played once
+		 */
+		public AudioTrack getTrack(int index) {
+			return prototypes.get(index).makeClone();
+		}
+		
+		/**
+		 * Gets the number of resolved tracks
+		 * @return The number of resolved tracks
+		 */
+		public int size() {
+			return prototypes.size();
+		}
+		
+		/**
+		 * Gets whether no source manager recognized the source
+		 * @return Whether the source had no matches
+		 */
+		public boolean isNoMatches() {
+			return noMatches;
+		}
+		
+		/**
+		 * Gets why the source failed to load
+		 * @return The message of the failure, or null if it didn't fail
+		 */
+		public String getError() {
+			return error;
+		}
+	}
+	
+	private final AudioPlayerManager audioPlayerManager;
+	private final int maxEntries;
+	//access ordered, so the least recently requested source is evicted first
+	private final LinkedHashMap<String, Resolution> entries;
+	//resolutions in progress, so a source requested again while loading is only loaded once
+	private final Map<String, Mono<Resolution>> loading = new ConcurrentHashMap<String, Mono<Resolution>>();
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	
+	/*
+	 * Constructors
+	 */
+	
+	/**
+	 * Creates an empty cache
+	 * @param audioPlayerManager The manager sources are resolved with
+	 * @param maxEntries The most sources the cache remembers
+	 */
+	public TrackCache(AudioPlayerManager audioPlayerManager, int maxEntries)
+	{
+		this.audioPlayerManager = audioPlayerManager;
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<String, Resolution>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Resolution> eldest) {
+				return size() > TrackCache.this.maxEntries;
+			}
+		};
+	}
+	
+	/*
+	 * Getters/Setters
+	 */
+	
+	/**
+	 * Gets the number of requests served from the cache
+	 * @return The number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Gets the number of requests that had to be resolved by LavaPlayer, or wait for it
+	 * @return The number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/*
+	 * Methods
+	 */
+	
+	/**
+	 * Resolves a source, from the cache if possible
+	 * @param source A link, or the path of a local file
+	 * @param remote Whether the source is a link, remote sources expire
+	 * @return What the source resolved to
+	 */
+	public Mono<Resolution> resolve(String source, boolean remote) {
+		String key = normalize(source, remote);
+		long now = System.currentTimeMillis();
+		Resolution cached;
+		synchronized(entries) {
+			cached = entries.get(key);
+			if(cached != null && cached.expiresAt <= now) {
+				entries.remove(key);
+				cached = null;
+			}
+		}
+		if(cached != null) {
+			hits.incrementAndGet();
+			return Mono.just(cached);
+		}
+		misses.incrementAndGet();
+		return loading.computeIfAbsent(key, k -> load(source, remote)
+				.doOnNext(resolution -> {
+					synchronized(entries) {
+						entries.put(key, resolution);
+					}
+				})
+				.doFinally(signal -> loading.remove(key))
+				.cache());
+	}
+	
+	//LavaPlayer loads on its own threads, the resolution is emitted once it is done
+	private Mono<Resolution> load(String source, boolean remote) {
+		return Mono.create(sink -> audioPlayerManager.loadItem(source, new AudioLoadResultHandler() {
+			@Override
+			public void trackLoaded(AudioTrack track) {
+				sink.success(resolved(Collections.singletonList(track), remote));
+			}
+			
+			@Override
+			public void playlistLoaded(AudioPlaylist playlist) {
+				sink.success(resolved(new ArrayList<AudioTrack>(playlist.getTracks()), remote));
+			}
+			
+			@Override
+			public void noMatches() {
+				sink.success(new Resolution(Collections.emptyList(), true, null, System.currentTimeMillis() + NEGATIVE_TTL_MILLIS));
+			}
+			
+			@Override
+			public void loadFailed(FriendlyException e) {
+				logger.debug("Loading " + source + " failed", e);
+				sink.success(new Resolution(Collections.emptyList(), false, e.getMessage(), System.currentTimeMillis() + NEGATIVE_TTL_MILLIS));
+			}
+		}));
+	}
+	
+	static Resolution resolved(List<AudioTrack> tracks, boolean remote) {
+		return new Resolution(tracks, false, null, remote ? System.currentTimeMillis() + REMOTE_TTL_MILLIS : Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Normalizes a source so the different ways of writing it share one entry: surrounding whitespace, the case of a link's scheme and host, and a link's fragment don't matter
+	 * @param source A link, or the path of a local file
+	 * @param remote Whether the source is a link
+	 * @return The normalized source
+	 */
+	static String normalize(String source, boolean remote) {
+		String trimmed = source.trim();
+		if(!remote) return trimmed;
+		try {
+			URI uri = new URI(trimmed);
+			if(uri.getScheme() == null || uri.getHost() == null) return trimmed;
+			return new URI(uri.getScheme().toLowerCase(Locale.ROOT), uri.getRawUserInfo() == null ? null : uri.getUserInfo(), uri.getHost().toLowerCase(Locale.ROOT), uri.getPort(),
+					uri.getPath(), uri.getQuery(), null).toString();
+		} catch(URISyntaxException e) {
+			return trimmed;
+		}
+	}
+	
+	/**
+	 * Logs the cache's counters
+	 */
+	public void logStatistics() {
+		logger.info("Track cache: " + getHits() + " hits, " + getMisses() + " misses");
+	}
+}
@@ -0,0 +1,247 @@
+package dakota.poonani;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Queue;
+
+import discord4j.core.object.entity.Member;
+
+/**
+ * An Aho-Corasick automaton over the triggers of every Routine in a guild.
+ * Every trigger of every routine is found in a single pass over the message, rather than checking each routine's triggers one at a time.
+ * contains() triggers are matched against the message as is, "word in a sentence" triggers against its lowercased view.
+ */
+public class TriggerIndex
+{
+	/*
+	 * Fields
+	 */
+
+	private static final class Node {
+		//children in an open addressing table keyed by the raw char, so stepping through a message never boxes
+		private char[] keys;
+		private Node[] children;
+		private int childCount;
+		private Node fail;
+		//the nearest node along the fail chain that has outputs, so matches can be reported without walking the whole chain
+		private Node outputLink;
+		//triggers ending exactly at this node
+		private final List<Match> outputs = new ArrayList<Match>(1);
+
+		private Node child(char c) {
+			if(childCount == 0) return null;
+			int mask = keys.length - 1;
+			for(int i = c & mask; ; i = (i + 1) & mask) {
+				if(children[i] == null) return null;
+				if(keys[i] == c) return children[i];
+			}
+		}
+
+		private void putChild(char c, Node child) {
+			if(keys == null) {
+				keys = new char[2];
+				children = new Node[2];
+			} else if((childCount + 1) * 2 > keys.length) {
+				//kept at most half full so probes stay short
+				char[] oldKeys = keys;
+				Node[] oldChildren = children;
+				keys = new char[oldKeys.length * 2];
+				children = new Node[oldKeys.length * 2];
+				childCount = 0;
+				for(int i = 0; i < oldKeys.length; i++) {
+					if(oldChildren[i] != null) putChild(oldKeys[i], oldChildren[i]);
+				}
+			}
+			int mask = keys.length - 1;
+			int i = c & mask;
+			while(children[i] != null) i = (i + 1) & mask;
+			keys[i] = c;
+			children[i] = child;
+			childCount++;
+		}
+
+		private void clearChildren() {
+			keys = null;
+			children = null;
+			childCount = 0;
+		}
+	}
+
+	private static final class Match {
+		private final int routineIndex;
+		private final int length;
+
+		private Match(int routineIndex, int length) {
+			this.routineIndex = routineIndex;
+			this.length = length;
+		}
+	}
+
+	private static final class Automaton {
+		private final Node root = new Node();
+		//whether the failure links are stale since triggers were inserted
+		private boolean dirty;
+
+		private void insert(CharSequence pattern, Match match) {
+			Node node = root;
+			for(int i = 0; i < pattern.length(); i++) {
+				char c = pattern.charAt(i);
+				Node child = node.child(c);
+				if(child == null) {
+					child = new Node();
+					node.putChild(c, child);
+				}
+				node = child;
+			}
+			node.outputs.add(match);
+			dirty = true;
+		}
+
+		private Node step(Node node, char c) {
+			Node next = node.child(c);
+			while(next == null && node != root) {
+				node = node.fail;
+				next = node.child(c);
+			}
+			return next == null ? root : next;
+		}
+
+		//relinks once before a lookup, however many triggers were inserted since the last one
+		private void ensureLinked() {
+			if(!dirty) return;
+			link();
+			dirty = false;
+		}
+
+		//breadth first recomputation of the failure and output links
+		private void link() {
+			Queue<Node> queue = new ArrayDeque<Node>();
+			root.fail = root;
+			root.outputLink = null;
+			for(int i = 0; root.childCount > 0 && i < root.children.length; i++) {
+				Node child = root.children[i];
+				if(child == null) continue;
+				child.fail = root;
+				child.outputLink = root.outputs.isEmpty() ? null : root;
+				queue.add(child);
+			}
+			while(!queue.isEmpty()) {
+				Node node = queue.poll();
+				for(int i = 0; node.childCount > 0 && i < node.children.length; i++) {
+					Node child = node.children[i];
+					if(child == null) continue;
+					char c = node.keys[i];
+					Node fail = node.fail;
+					while(fail != root && fail.child(c) == null) {
+						fail = fail.fail;
+					}
+					Node target = fail.child(c);
+					child.fail = (target != null && target != child) ? target : root;
+					child.outputLink = !child.fail.outputs.isEmpty() ? child.fail : child.fail.outputLink;
+					queue.add(child);
+				}
+			}
+		}
+
+		private void clear() {
+			root.clearChildren();
+			root.outputs.clear();
+			dirty = false;
+		}
+	}
+
+	private final Automaton containsTriggers = new Automaton();
+	private final Automaton phraseTriggers = new Automaton();
+	//routines in the order they were added, so responses are sent in the same order as before
+	private final List<Routine> routines = new ArrayList<Routine>();
+
+	/*
+	 * Methods
+	 */
+
+	/**
+	 * Adds the triggers of a routine to the automaton. Only the new triggers are inserted, the failure links are rebuilt once before the next lookup,
+	 * so loading many routines in a row costs a single relink.
+	 * @param routine The routine to add
+	 */
+	public void add(Routine routine) {
+		int routineIndex = routines.size();
+		routines.add(routine);
+		Automaton automaton = routine.getCheckPhraseExists() ? phraseTriggers : containsTriggers;
+		for(String trigger : routine.getTriggers()) {
+			if(routine.getCheckPhraseExists()) {
+				//an empty phrase can never be a word in a sentence
+				if(trigger.isEmpty()) continue;
+				StringBuilder lower = new StringBuilder(trigger.length());
+				for(int i = 0; i < trigger.length(); i++) lower.append(Character.toLowerCase(trigger.charAt(i)));
+				automaton.insert(lower, new Match(routineIndex, trigger.length()));
+			} else {
+				automaton.insert(trigger, new Match(routineIndex, trigger.length()));
+			}
+		}
+	}
+
+	/**
+	 * Removes every routine from the automaton
+	 */
+	public void clear() {
+		containsTriggers.clear();
+		phraseTriggers.clear();
+		routines.clear();
+	}
+
+	/**
+	 * Gets the number of routines in the automaton
+	 * @return The number of routines in the automaton
+	 */
+	public int size() {
+		return routines.size();
+	}
+
+	/**
+	 * Returns every routine that has a trigger in message, using the appropriate logic based on each routine's checkPhraseExists, and whose whitelist allows the sender.
+	 * @param message The analysis of the message to check
+	 * @param sender The sender of the message, null in DMs
+	 * @return The matching routines, in the order they were added
+	 */
+	public List<Routine> findRoutines(MessageAnalysis message, Member sender) {
+		BitSet matched = new BitSet(routines.size());
+		String original = message.getMessage();
+		containsTriggers.ensureLinked();
+		phraseTriggers.ensureLinked();
+
+		Node node = containsTriggers.root;
+		collect(node, message, 0, false, matched);
+		for(int i = 0; i < original.length(); i++) {
+			node = containsTriggers.step(node, original.charAt(i));
+			collect(node, message, i+1, false, matched);
+		}
+
+		node = phraseTriggers.root;
+		for(int i = 0; i < message.length(); i++) {
+			node = phraseTriggers.step(node, message.lowerCharAt(i));
+			collect(node, message, i+1, true, matched);
+		}
+
+		List<Routine> found = new ArrayList<Routine>(matched.cardinality());
+		for(int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i+1)) {
+			Routine routine = routines.get(i);
+			if(routine.isWhitelisted(sender)) found.add(routine);
+		}
+		return found;
+	}
+
+	//end is the index after the last character of every match reported by node
+	private static void collect(Node node, MessageAnalysis message, int end, boolean bounded, BitSet matched) {
+		for(Node out = node.outputs.isEmpty() ? node.outputLink : node; out != null; out = out.outputLink) {
+			for(Match match : out.outputs) {
+				if(matched.get(match.routineIndex)) continue;
+				if(!bounded || message.isBounded(end - match.length, end)) {
+					matched.set(match.routineIndex);
+				}
+			}
+		}
+	}
+}
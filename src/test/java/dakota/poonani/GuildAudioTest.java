@@ -0,0 +1,213 @@
+package dakota.poonani;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests that GuildAudio's queue moves on when a track buffered on a standby player can't be played, against fake LavaPlayer players.
+ */
+public class GuildAudioTest
+    extends TestCase
+{
+    //answers every method a test doesn't care about with the default of its return type
+    private static Object defaultValue( Class<?> type )
+    {
+        if ( type == boolean.class )
+        {
+            return false;
+        }
+        if ( type == int.class )
+        {
+            return 0;
+        }
+        if ( type == long.class )
+        {
+            return 0L;
+        }
+        return null;
+    }
+
+    private static AudioTrack track( final String identifier )
+    {
+        return (AudioTrack) Proxy.newProxyInstance( AudioTrack.class.getClassLoader(), new Class<?>[] { AudioTrack.class },
+            ( proxy, method, args ) ->
+            {
+                switch ( method.getName() )
+                {
+                    case "getIdentifier":
+                    case "toString":
+                        return identifier;
+                    case "makeClone":
+                        return track( identifier );
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode( proxy );
+                }
+                return defaultValue( method.getReturnType() );
+            } );
+    }
+
+    /**
+     * A player that only remembers what it was told to do
+     */
+    private static final class FakePlayer
+        implements InvocationHandler
+    {
+        private final AudioPlayer proxy = (AudioPlayer) Proxy.newProxyInstance( AudioPlayer.class.getClassLoader(), new Class<?>[] { AudioPlayer.class }, this );
+        private AudioTrack track;
+        private boolean paused;
+        private boolean destroyed;
+        private AudioEventAdapter listener;
+
+        @Override
+        public Object invoke( Object target, Method method, Object[] args )
+        {
+            switch ( method.getName() )
+            {
+                case "getPlayingTrack":
+                    return track;
+                case "playTrack":
+                    track = (AudioTrack) args[0];
+                    return null;
+                case "stopTrack":
+                    track = null;
+                    return null;
+                case "isPaused":
+                    return paused;
+                case "setPaused":
+                    paused = (Boolean) args[0];
+                    return null;
+                case "destroy":
+                    destroyed = true;
+                    track = null;
+                    return null;
+                case "addListener":
+                    listener = (AudioEventAdapter) args[0];
+                    return null;
+                case "equals":
+                    return target == args[0];
+                case "hashCode":
+                    return System.identityHashCode( target );
+                case "toString":
+                    return "player of " + track;
+            }
+            return defaultValue( method.getReturnType() );
+        }
+    }
+
+    private final List<FakePlayer> players = new ArrayList<FakePlayer>();
+
+    private AudioPlayerManager manager()
+    {
+        return (AudioPlayerManager) Proxy.newProxyInstance( AudioPlayerManager.class.getClassLoader(), new Class<?>[] { AudioPlayerManager.class },
+            ( proxy, method, args ) ->
+            {
+                if ( method.getName().equals( "createPlayer" ) )
+                {
+                    FakePlayer player = new FakePlayer();
+                    players.add( player );
+                    return player.proxy;
+                }
+                return defaultValue( method.getReturnType() );
+            } );
+    }
+
+    //a guild whose mailbox runs everything right away, playing t0 with t1 and t2 buffering on standby players
+    private GuildAudio playThreeTracks()
+    {
+        GuildAudio audio = new GuildAudio( manager(), Runnable::run, 4, 2, 100 );
+        audio.addTracks( TrackCache.resolved( Arrays.asList( track( "t0" ), track( "t1" ), track( "t2" ) ), false ) );
+        assertEquals( 3, players.size() );
+        assertEquals( "t0", players.get( 0 ).track.getIdentifier() );
+        assertTrue( players.get( 1 ).paused );
+        assertTrue( players.get( 2 ).paused );
+        return audio;
+    }
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public GuildAudioTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( GuildAudioTest.class );
+    }
+
+    public void testBufferedTrackIsPlayedWithoutAGap()
+    {
+        GuildAudio audio = playThreeTracks();
+        FakePlayer main = players.get( 0 );
+        main.listener.onTrackEnd( main.proxy, main.track, AudioTrackEndReason.FINISHED );
+        assertTrue( main.destroyed );
+        assertFalse( players.get( 1 ).paused );
+        assertTrue( audio.isPlaying() );
+        assertEquals( "t1", players.get( 1 ).track.getIdentifier() );
+        assertEquals( 1, audio.getQueuedCount() );
+    }
+
+    public void testFailedStandbyTrackIsSkipped()
+    {
+        GuildAudio audio = playThreeTracks();
+        FakePlayer main = players.get( 0 );
+        FakePlayer failed = players.get( 1 );
+        //LavaPlayer reports a failure to load as soon as it happens, even on a paused player
+        failed.listener.onTrackException( failed.proxy, failed.track, null );
+        main.listener.onTrackEnd( main.proxy, main.track, AudioTrackEndReason.FINISHED );
+        assertTrue( failed.destroyed );
+        assertFalse( players.get( 2 ).paused );
+        assertTrue( audio.isPlaying() );
+        assertEquals( "t2", players.get( 2 ).track.getIdentifier() );
+        assertEquals( 0, audio.getQueuedCount() );
+    }
+
+    public void testStandbyThatLostItsTrackIsPlayedAgain()
+    {
+        GuildAudio audio = playThreeTracks();
+        FakePlayer main = players.get( 0 );
+        FakePlayer cleaned = players.get( 1 );
+        //what LavaPlayer's cleanup does to a player that isn't polled
+        cleaned.track = null;
+        main.listener.onTrackEnd( main.proxy, main.track, AudioTrackEndReason.FINISHED );
+        assertTrue( cleaned.destroyed );
+        assertFalse( main.destroyed );
+        assertTrue( audio.isPlaying() );
+        assertEquals( "t1", main.track.getIdentifier() );
+        assertEquals( 1, audio.getQueuedCount() );
+    }
+
+    public void testSkipMovesOnFromAFailedTrack()
+    {
+        GuildAudio audio = playThreeTracks();
+        FakePlayer main = players.get( 0 );
+        //the current track failed without an end event reaching the queue
+        main.track = null;
+        assertFalse( audio.isPlaying() );
+        audio.skip();
+        assertTrue( audio.isPlaying() );
+        assertEquals( "t1", players.get( 1 ).track.getIdentifier() );
+    }
+}
@@ -0,0 +1,150 @@
+package dakota.poonani;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests that JournalStorage recovers its records from the journal and snapshot in a temporary directory.
+ */
+public class JournalStorageTest 
+    extends TestCase
+{
+    private File directory;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public JournalStorageTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( JournalStorageTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory( "poonani-journal-test" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for ( File file : directory.listFiles() )
+        {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private JournalStorage open( JournalStorage.FsyncPolicy policy ) throws IOException
+    {
+        return new JournalStorage( directory, policy );
+    }
+
+    private static StorageRecord routine( int i )
+    {
+        return new StorageRecord( StorageRecord.Type.ROUTINE, ":addnew: :trigger" + i + ": false false response " + i );
+    }
+
+    private File journalFile()
+    {
+        return new File( directory, "journal.log" );
+    }
+
+    public void testReplayRestoresPutsAndRemoves() throws IOException
+    {
+        JournalStorage storage = open( JournalStorage.FsyncPolicy.NEVER );
+        for ( int i = 0; i < 5; i++ )
+        {
+            storage.put( routine( i ) );
+        }
+        storage.remove( routine( 1 ) );
+        storage.remove( routine( 3 ) );
+        storage.put( new StorageRecord( StorageRecord.Type.ADMIN_ROLE, "1" ) );
+        storage.put( new StorageRecord( StorageRecord.Type.ADMIN_ROLE, "2" ) );
+        storage.close();
+
+        List<StorageRecord> records = open( JournalStorage.FsyncPolicy.NEVER ).load();
+        assertEquals( 4, records.size() );
+        assertEquals( routine( 0 ).getId(), records.get( 0 ).getId() );
+        assertEquals( routine( 2 ).getId(), records.get( 1 ).getId() );
+        assertEquals( routine( 4 ).getId(), records.get( 2 ).getId() );
+        //single records are replaced rather than added
+        assertEquals( "2", records.get( 3 ).getContent() );
+    }
+
+    public void testCompactionMovesLiveRecordsIntoTheSnapshot() throws IOException
+    {
+        JournalStorage storage = open( JournalStorage.FsyncPolicy.NEVER );
+        storage.put( routine( 0 ) );
+        for ( int i = 0; i < 300; i++ )
+        {
+            storage.put( new StorageRecord( StorageRecord.Type.ADMIN_ROLE, String.valueOf( i ) ) );
+        }
+        assertTrue( new File( directory, "snapshot.dat" ).exists() );
+        //the journal started over at the compaction, so it only holds the entries written since
+        storage.close();
+        assertTrue( journalFile().length() < 300 * 10 );
+
+        List<StorageRecord> records = open( JournalStorage.FsyncPolicy.NEVER ).load();
+        assertEquals( 2, records.size() );
+        assertEquals( routine( 0 ).getContent(), records.get( 0 ).getContent() );
+        assertEquals( "299", records.get( 1 ).getContent() );
+    }
+
+    public void testTornLastEntryIsDiscarded() throws IOException
+    {
+        JournalStorage storage = open( JournalStorage.FsyncPolicy.ALWAYS );
+        storage.put( routine( 0 ) );
+        storage.put( routine( 1 ) );
+        storage.close();
+        long validLength = journalFile().length();
+
+        //a put that was cut off partway through its type
+        try ( FileOutputStream out = new FileOutputStream( journalFile(), true ) )
+        {
+            out.write( new byte[] { 1, 0, 7, 'R', 'O' } );
+        }
+
+        storage = open( JournalStorage.FsyncPolicy.ALWAYS );
+        assertEquals( 2, storage.load().size() );
+        assertEquals( validLength, journalFile().length() );
+
+        //entries written after the recovery are replayed normally
+        storage.put( routine( 2 ) );
+        storage.close();
+        assertEquals( 3, open( JournalStorage.FsyncPolicy.ALWAYS ).load().size() );
+    }
+
+    public void testIntervalPolicySyncsTheLastWritesOfABurst() throws Exception
+    {
+        JournalStorage storage = open( JournalStorage.FsyncPolicy.INTERVAL );
+        storage.put( routine( 0 ) );
+        storage.put( routine( 1 ) );
+        assertTrue( storage.hasUnsyncedWrites() );
+        //nothing else is written, the scheduled sync has to catch up on its own
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( storage.hasUnsyncedWrites() && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 50 );
+        }
+        assertFalse( storage.hasUnsyncedWrites() );
+        storage.close();
+    }
+}
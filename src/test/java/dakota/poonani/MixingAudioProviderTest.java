@@ -0,0 +1,138 @@
+package dakota.poonani;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests that MixingAudioProvider passes a lone cached taunt through untouched, even with an idle main player registered.
+ * Only the pass-through path is exercised, mixing needs LavaPlayer's native Opus codec.
+ */
+public class MixingAudioProviderTest
+    extends TestCase
+{
+    private static final byte[][] FRAMES = {
+        { (byte) 0xFC, (byte) 0xFF, (byte) 0xFE },
+        { 1, 2, 3, 4, 5, 6, 7, 8 },
+        { (byte) 0xF8, 0, 0x7F, (byte) 0x80 }
+    };
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public MixingAudioProviderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( MixingAudioProviderTest.class );
+    }
+
+    private static OpusFrameCache.EncodedAudio taunt( byte[]... frames )
+    {
+        int[] offsets = new int[frames.length + 1];
+        for ( int i = 0; i < frames.length; i++ )
+        {
+            offsets[i + 1] = offsets[i] + frames[i].length;
+        }
+        ByteBuffer data = ByteBuffer.allocate( offsets[frames.length] );
+        for ( byte[] frame : frames )
+        {
+            data.put( frame );
+        }
+        return new OpusFrameCache.EncodedAudio( data, offsets );
+    }
+
+    //a player that isn't playing anything, like the queue's player between tracks
+    private static AudioPlayer idlePlayer()
+    {
+        return (AudioPlayer) Proxy.newProxyInstance( AudioPlayer.class.getClassLoader(), new Class<?>[] { AudioPlayer.class },
+            ( proxy, method, args ) ->
+            {
+                switch ( method.getName() )
+                {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode( proxy );
+                    case "toString":
+                        return "idle player";
+                }
+                Class<?> type = method.getReturnType();
+                if ( type == boolean.class )
+                {
+                    return false;
+                }
+                if ( type == int.class )
+                {
+                    return 0;
+                }
+                if ( type == long.class )
+                {
+                    return 0L;
+                }
+                return null;
+            } );
+    }
+
+    private static byte[] provided( MixingAudioProvider mixer )
+    {
+        ByteBuffer buffer = mixer.getBuffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get( bytes );
+        return bytes;
+    }
+
+    public void testLoneTauntIsPassedThrough()
+    {
+        MixingAudioProvider mixer = new MixingAudioProvider( 4 );
+        mixer.setMainPlayer( idlePlayer() );
+        assertTrue( mixer.addVoice( taunt( FRAMES ).cursor() ) );
+        assertEquals( 1, mixer.getVoiceCount() );
+        for ( byte[] frame : FRAMES )
+        {
+            assertTrue( mixer.provide() );
+            assertTrue( Arrays.equals( frame, provided( mixer ) ) );
+        }
+        //the finished taunt is removed and the idle main player is left
+        assertFalse( mixer.provide() );
+        assertEquals( 0, mixer.getVoiceCount() );
+        assertFalse( mixer.provide() );
+    }
+
+    public void testLoneTauntIsPassedThroughWithoutAMainPlayer()
+    {
+        MixingAudioProvider mixer = new MixingAudioProvider( 4 );
+        assertTrue( mixer.addVoice( taunt( FRAMES ).cursor() ) );
+        for ( byte[] frame : FRAMES )
+        {
+            assertTrue( mixer.provide() );
+            assertTrue( Arrays.equals( frame, provided( mixer ) ) );
+        }
+        assertFalse( mixer.provide() );
+    }
+
+    public void testStoppedTauntIsRemoved()
+    {
+        MixingAudioProvider mixer = new MixingAudioProvider( 4 );
+        mixer.setMainPlayer( idlePlayer() );
+        assertTrue( mixer.addVoice( taunt( FRAMES ).cursor() ) );
+        assertTrue( mixer.provide() );
+        mixer.stopVoices();
+        assertFalse( mixer.provide() );
+        assertEquals( 0, mixer.getVoiceCount() );
+    }
+}
@@ -0,0 +1,117 @@
+package dakota.poonani;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import discord4j.rest.http.client.ClientException;
+import discord4j.rest.http.client.ClientRequest;
+import discord4j.rest.route.Routes;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClientResponse;
+
+/**
+ * Tests how NameCache treats users Discord can't find, which its REST API answers with an error status.
+ */
+public class NameCacheTest
+    extends TestCase
+{
+    private static final String KEY = "member:1:2";
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public NameCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( NameCacheTest.class );
+    }
+
+    //the error Discord4J emits when the REST API answers a member request with status
+    private static ClientException clientException( final HttpResponseStatus status )
+    {
+        HttpClientResponse response = (HttpClientResponse) Proxy.newProxyInstance( HttpClientResponse.class.getClassLoader(),
+            new Class<?>[] { HttpClientResponse.class }, ( proxy, method, args ) ->
+            {
+                switch ( method.getName() )
+                {
+                    case "status":
+                        return status;
+                    case "responseHeaders":
+                        return EmptyHttpHeaders.INSTANCE;
+                }
+                return null;
+            } );
+        return new ClientException( new ClientRequest( Routes.GUILD_MEMBER_GET.newRequest( 1L, 2L ) ), response, null );
+    }
+
+    public void testFoundNameIsCached()
+    {
+        NameCache cache = new NameCache( 10, 60000 );
+        AtomicInteger fetches = new AtomicInteger();
+        for ( int i = 0; i < 3; i++ )
+        {
+            assertEquals( "poonani", cache.get( KEY, () -> Mono.fromCallable( () ->
+            {
+                fetches.incrementAndGet();
+                return "poonani";
+            } ) ).block() );
+        }
+        assertEquals( 1, fetches.get() );
+        assertEquals( 2, cache.getHits() );
+    }
+
+    public void testUnknownMemberIsEmptyAndRemembered()
+    {
+        NameCache cache = new NameCache( 10, 60000 );
+        AtomicInteger fetches = new AtomicInteger();
+        for ( int i = 0; i < 3; i++ )
+        {
+            assertNull( cache.get( KEY, () -> Mono.defer( () ->
+            {
+                fetches.incrementAndGet();
+                return Mono.<String>error( clientException( HttpResponseStatus.NOT_FOUND ) );
+            } ) ).block() );
+        }
+        assertEquals( 1, fetches.get() );
+        assertEquals( 1, cache.getMisses() );
+    }
+
+    public void testOtherErrorsAreNotCached()
+    {
+        NameCache cache = new NameCache( 10, 60000 );
+        AtomicInteger fetches = new AtomicInteger();
+        for ( int i = 0; i < 2; i++ )
+        {
+            try
+            {
+                cache.get( KEY, () -> Mono.defer( () ->
+                {
+                    fetches.incrementAndGet();
+                    return Mono.<String>error( clientException( HttpResponseStatus.INTERNAL_SERVER_ERROR ) );
+                } ) ).block();
+                fail( "The error was swallowed" );
+            }
+            catch ( ClientException e )
+            {
+                assertEquals( 500, e.getStatus().code() );
+            }
+        }
+        assertEquals( 2, fetches.get() );
+        //the name is fetched once Discord answers
+        assertEquals( "poonani", cache.get( KEY, () -> Mono.just( "poonani" ) ).block() );
+    }
+}
@@ -0,0 +1,83 @@
+package dakota.poonani;
+
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests how OutboundQueue splits replies that don't fit in one message.
+ */
+public class OutboundQueueTest 
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public OutboundQueueTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( OutboundQueueTest.class );
+    }
+
+    private static String repeat( char c, int count )
+    {
+        StringBuilder text = new StringBuilder( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            text.append( c );
+        }
+        return text.toString();
+    }
+
+    public void testShortTextIsNotSplit()
+    {
+        List<String> pieces = OutboundQueue.split( "hello" );
+        assertEquals( 1, pieces.size() );
+        assertEquals( "hello", pieces.get( 0 ) );
+        assertEquals( 1, OutboundQueue.split( repeat( 'a', OutboundQueue.MAX_MESSAGE_LENGTH ) ).size() );
+    }
+
+    public void testTextIsSplitAtLineBreaks()
+    {
+        String first = repeat( 'a', 1500 );
+        String second = repeat( 'b', 1500 );
+        List<String> pieces = OutboundQueue.split( first + "\n" + second );
+        assertEquals( 2, pieces.size() );
+        assertEquals( first, pieces.get( 0 ) );
+        assertEquals( second, pieces.get( 1 ) );
+    }
+
+    public void testLongLinesAreCutAtTheLimit()
+    {
+        String text = repeat( 'a', OutboundQueue.MAX_MESSAGE_LENGTH * 2 + 10 );
+        List<String> pieces = OutboundQueue.split( text );
+        assertEquals( 3, pieces.size() );
+        StringBuilder joined = new StringBuilder();
+        for ( String piece : pieces )
+        {
+            assertTrue( piece.length() <= OutboundQueue.MAX_MESSAGE_LENGTH );
+            joined.append( piece );
+        }
+        assertEquals( text, joined.toString() );
+    }
+
+    public void testSurrogatePairsAreNotCut()
+    {
+        String text = repeat( 'a', OutboundQueue.MAX_MESSAGE_LENGTH - 1 ) + "\uD83D\uDE00" + "b";
+        List<String> pieces = OutboundQueue.split( text );
+        assertEquals( 2, pieces.size() );
+        assertEquals( OutboundQueue.MAX_MESSAGE_LENGTH - 1, pieces.get( 0 ).length() );
+        assertEquals( "\uD83D\uDE00b", pieces.get( 1 ) );
+    }
+}
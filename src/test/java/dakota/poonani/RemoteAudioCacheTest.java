@@ -0,0 +1,229 @@
+package dakota.poonani;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Tests RemoteAudioCache against an HTTP server embedded in the test, so nothing goes over the network.
+ */
+public class RemoteAudioCacheTest 
+    extends TestCase
+{
+    private HttpServer server;
+    private String base;
+    private File directory;
+    //requests received by path
+    private final ConcurrentHashMap<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+    //released to let the slow path respond
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public RemoteAudioCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( RemoteAudioCacheTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory( "poonani-audio-cache-test" ).toFile();
+        server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+        server.createContext( "/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            requests.computeIfAbsent( path, p -> new AtomicInteger() ).incrementAndGet();
+            if ( path.startsWith( "/slow" ) )
+            {
+                try
+                {
+                    release.await( 10, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            byte[] body;
+            if ( path.startsWith( "/page" ) )
+            {
+                body = "<html></html>".getBytes( "UTF-8" );
+                exchange.getResponseHeaders().set( "Content-Type", "text/html" );
+            }
+            else
+            {
+                //the last path segment decides the content, so two paths can serve the same audio
+                body = audio( path.substring( path.lastIndexOf( '/' ) + 1 ) );
+                exchange.getResponseHeaders().set( "Content-Type", "audio/mpeg" );
+            }
+            exchange.sendResponseHeaders( 200, body.length );
+            try ( OutputStream out = exchange.getResponseBody() )
+            {
+                out.write( body );
+            }
+        } );
+        server.setExecutor( Executors.newCachedThreadPool() );
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @Override
+    protected void tearDown() throws IOException
+    {
+        release.countDown();
+        server.stop( 0 );
+        for ( File file : directory.listFiles() )
+        {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private static byte[] audio( String name )
+    {
+        byte[] data = new byte[1000];
+        for ( int i = 0; i < data.length; i++ )
+        {
+            data[i] = (byte) ( name.hashCode() + i );
+        }
+        return data;
+    }
+
+    private RemoteAudioCache cache( long maxBytes ) throws IOException
+    {
+        return new RemoteAudioCache( directory, maxBytes, Schedulers.elastic() );
+    }
+
+    private int requestCount( String path )
+    {
+        AtomicInteger count = requests.get( path );
+        return count == null ? 0 : count.get();
+    }
+
+    public void testRepeatedFetchIsServedFromDisk() throws IOException
+    {
+        RemoteAudioCache cache = cache( 1 << 20 );
+        File first = cache.fetch( base + "/a/one.mp3" ).block();
+        File second = cache.fetch( base + "/a/one.mp3" ).block();
+        assertEquals( first, second );
+        assertTrue( first.getName().endsWith( ".mp3" ) );
+        assertTrue( Arrays.equals( audio( "one.mp3" ), Files.readAllBytes( first.toPath() ) ) );
+        assertEquals( 1, requestCount( "/a/one.mp3" ) );
+        assertEquals( 1, cache.getHits() );
+        assertEquals( 1, cache.getDownloads() );
+    }
+
+    public void testGetCachedNeverDownloads() throws IOException
+    {
+        RemoteAudioCache cache = cache( 1 << 20 );
+        assertNull( cache.getCached( base + "/a/four.mp3" ) );
+        assertEquals( 0, requestCount( "/a/four.mp3" ) );
+        File fetched = cache.fetch( base + "/a/four.mp3" ).block();
+        assertEquals( fetched, cache.getCached( base + "/a/four.mp3" ) );
+        assertEquals( 1, requestCount( "/a/four.mp3" ) );
+        assertEquals( 1, cache.getHits() );
+    }
+
+    public void testConcurrentFetchesShareOneDownload() throws Exception
+    {
+        RemoteAudioCache cache = cache( 1 << 20 );
+        List<Mono<File>> fetches = new ArrayList<Mono<File>>();
+        for ( int i = 0; i < 8; i++ )
+        {
+            fetches.add( cache.fetch( base + "/slow/two.mp3" ) );
+        }
+        List<File> files = new ArrayList<File>();
+        CountDownLatch done = new CountDownLatch( fetches.size() );
+        for ( Mono<File> fetch : fetches )
+        {
+            fetch.subscribe( file -> {
+                synchronized ( files )
+                {
+                    files.add( file );
+                }
+                done.countDown();
+            } );
+        }
+        release.countDown();
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( 1, requestCount( "/slow/two.mp3" ) );
+        for ( File file : files )
+        {
+            assertEquals( files.get( 0 ), file );
+        }
+    }
+
+    public void testSameContentIsStoredOnce() throws IOException
+    {
+        RemoteAudioCache cache = cache( 1 << 20 );
+        File first = cache.fetch( base + "/a/three.mp3" ).block();
+        File second = cache.fetch( base + "/b/three.mp3" ).block();
+        assertEquals( first, second );
+        assertEquals( 1000, cache.getBytesResident() );
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() throws IOException
+    {
+        RemoteAudioCache cache = cache( 2500 );
+        File one = cache.fetch( base + "/one.mp3" ).block();
+        File two = cache.fetch( base + "/two.mp3" ).block();
+        //use one again so two is the least recently used
+        cache.fetch( base + "/one.mp3" ).block();
+        File three = cache.fetch( base + "/three.mp3" ).block();
+        assertTrue( one.exists() );
+        assertFalse( two.exists() );
+        assertTrue( three.exists() );
+        assertEquals( 2000, cache.getBytesResident() );
+        assertEquals( 1, cache.getEvictions() );
+
+        //evicted links are downloaded again
+        cache.fetch( base + "/two.mp3" ).block();
+        assertEquals( 2, requestCount( "/two.mp3" ) );
+    }
+
+    public void testIndexSurvivesReopening() throws IOException
+    {
+        File first = cache( 1 << 20 ).fetch( base + "/four.mp3" ).block();
+        RemoteAudioCache reopened = cache( 1 << 20 );
+        assertEquals( first, reopened.fetch( base + "/four.mp3" ).block() );
+        assertEquals( 1, requestCount( "/four.mp3" ) );
+    }
+
+    public void testPagesAreNotCached() throws IOException
+    {
+        RemoteAudioCache cache = cache( 1 << 20 );
+        assertNull( cache.fetch( base + "/page" ).block() );
+        assertNull( cache.fetch( base + "/page" ).block() );
+        assertEquals( 1, requestCount( "/page" ) );
+        assertEquals( 0, cache.getBytesResident() );
+    }
+}
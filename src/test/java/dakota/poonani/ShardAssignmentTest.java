@@ -0,0 +1,206 @@
+package dakota.poonani;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import discord4j.core.DiscordClient;
+import discord4j.core.DiscordClientBuilder;
+import discord4j.core.ServiceMediator;
+import discord4j.core.event.EventDispatcher;
+import discord4j.core.event.domain.guild.GuildCreateEvent;
+import discord4j.core.event.domain.lifecycle.ReadyEvent;
+import discord4j.core.object.data.stored.BaseGuildBean;
+import discord4j.core.object.entity.Guild;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Tests that processes running ShardAssignments split guilds between them the way a gateway does, by sending READY and GuildCreate events
+ * from a fake gateway through the event handlers Main registers for each shard.
+ */
+public class ShardAssignmentTest
+    extends TestCase
+{
+    /**
+     * Stands in for Discord's gateway with 4 shards: each session it opens gets READY and then a GuildCreate for each of its guilds,
+     * worked out by hand from the guilds' creation times
+     */
+    private static final class FakeGateway
+    {
+        private static final long[][] SESSIONS = {
+            { 613425648685547541L, 222078108977594368L, 172018499005317120L, 331105416374616499L, 226326219624352735L,
+              412227679633767509L, 558888605050548461L, 1473724598195978738L, 823332403020811377L },
+            { 268870936010914618L, 1394913607014569637L, 1448437069724698221L, 1457799839253793832L },
+            { 81384788765712384L, 41771983423143937L, 302094807046684672L, 1092251829079799539L, 1114627710827116025L },
+            { 1035708953595883071L, 358097945073995492L, 283919878906105355L, 412673856820253464L, 355152870796429688L,
+              268539115855305946L }
+        };
+
+        //the guilds' side of a client, the events only need it to carry their guild
+        private final ServiceMediator mediator = new ServiceMediator( null, null, null, null, null, null, null );
+        private final Map<Integer, DiscordClient> clients = new TreeMap<Integer, DiscordClient>();
+        private final Map<DiscordClientBuilder, Integer> sessions = new IdentityHashMap<DiscordClientBuilder, Integer>();
+
+        //the builders of the shards a process runs, in order, as ShardingClientBuilder emits them
+        private Flux<DiscordClientBuilder> builders( ShardAssignment process )
+        {
+            return Flux.range( 0, process.getShardCount() )
+                .filter( process::runs )
+                .map( shard ->
+                {
+                    DiscordClientBuilder builder = new DiscordClientBuilder( "token" ).setShardCount( process.getShardCount() ).setShardIndex( shard );
+                    sessions.put( builder, shard );
+                    return builder;
+                } );
+        }
+
+        //opens a session with the client of the shard the builder was for, which is built but never logged in, delivering its events right away
+        private int connect( DiscordClientBuilder builder, int shardIndex )
+        {
+            DiscordClient client = builder.setEventScheduler( Schedulers.immediate() ).build();
+            int session = sessions.get( builder );
+            EventDispatcher dispatcher = client.getEventDispatcher();
+            Main.registerEvents( dispatcher, shardIndex );
+            clients.put( session, client );
+            //READY lists every guild as unavailable
+            Set<ReadyEvent.Guild> guilds = new HashSet<ReadyEvent.Guild>();
+            for ( long guildId : SESSIONS[session] )
+            {
+                guilds.add( new ReadyEvent.Guild( guildId, false ) );
+            }
+            dispatcher.publish( new ReadyEvent( client, 6, null, guilds, "session-" + session, new String[0] ) );
+            for ( long guildId : SESSIONS[session] )
+            {
+                send( session, guildId );
+            }
+            return shardIndex;
+        }
+
+        private void send( int session, long guildId )
+        {
+            BaseGuildBean bean = new BaseGuildBean();
+            bean.setId( guildId );
+            DiscordClient client = clients.get( session );
+            client.getEventDispatcher().publish( new GuildCreateEvent( client, new Guild( mediator, bean ) ) );
+        }
+
+        private static Set<Long> guilds( int... sessions )
+        {
+            Set<Long> guilds = new HashSet<Long>();
+            for ( int session : sessions )
+            {
+                for ( long guildId : SESSIONS[session] )
+                {
+                    guilds.add( guildId );
+                }
+            }
+            return guilds;
+        }
+    }
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ShardAssignmentTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ShardAssignmentTest.class );
+    }
+
+    //starts a process's shards against a new gateway
+    private static FakeGateway launch( ShardAssignment process )
+    {
+        Main.shards = process;
+        //guilds are only created, their stored state isn't loaded
+        Main.lazyHydration = true;
+        Main.hydrationSweep = false;
+        Main.handlers.clear();
+        Main.uninitializedGuilds.clear();
+        Main.readyReported.set( false );
+        FakeGateway gateway = new FakeGateway();
+        Main.startShards( gateway.builders( process ), process, gateway::connect ).blockLast();
+        return gateway;
+    }
+
+    public void testEachProcessCreatesTheGuildsOfItsShards()
+    {
+        //three processes, one of them launching two shards in the same JVM
+        String[] processes = { "0-1", "2", "3" };
+        Set<Long> created = new HashSet<Long>();
+        for ( String shards : processes )
+        {
+            launch( ShardAssignment.parse( 4, shards ) );
+            assertTrue( Main.readyReported.get() );
+            for ( Long guildId : Main.handlers.keySet() )
+            {
+                assertTrue( "Guild " + guildId + " was created by two processes", created.add( guildId ) );
+            }
+        }
+        assertEquals( FakeGateway.guilds( 0, 1, 2, 3 ), created );
+
+        //a process whose shards aren't the first ones still gives each shard its own index
+        launch( ShardAssignment.parse( 4, "1,3" ) );
+        assertEquals( FakeGateway.guilds( 1, 3 ), Main.handlers.keySet() );
+        assertTrue( Main.readyReported.get() );
+
+        launch( ShardAssignment.all( 4 ) );
+        assertEquals( FakeGateway.guilds( 0, 1, 2, 3 ), Main.handlers.keySet() );
+        assertTrue( Main.readyReported.get() );
+    }
+
+    public void testGuildsSentToTheWrongShardAreRejected()
+    {
+        FakeGateway gateway = launch( ShardAssignment.parse( 4, "2-3" ) );
+        assertEquals( FakeGateway.guilds( 2, 3 ), Main.handlers.keySet() );
+        //a guild of shard 0 turning up on the sessions of shards 2 and 3, as when processes disagree on the shard count
+        long stray = FakeGateway.SESSIONS[0][0];
+        gateway.send( 2, stray );
+        gateway.send( 3, stray );
+        assertFalse( Main.handlers.containsKey( stray ) );
+        assertEquals( FakeGateway.guilds( 2, 3 ), Main.handlers.keySet() );
+        assertTrue( Main.readyReported.get() );
+
+        for ( int shard = 0; shard < FakeGateway.SESSIONS.length; shard++ )
+        {
+            for ( long guildId : FakeGateway.SESSIONS[shard] )
+            {
+                assertEquals( shard, ShardAssignment.shardOf( guildId, 4 ) );
+            }
+        }
+    }
+
+    public void testParse()
+    {
+        assertEquals( "[0, 2, 3, 4, 5]", Arrays.toString( ShardAssignment.parse( 8, "0, 2-5" ).getIndexes() ) );
+        assertEquals( 3, ShardAssignment.parse( 3, null ).getIndexes().length );
+        assertEquals( 1, ShardAssignment.parse( 1, "" ).getIndexes().length );
+        for ( String invalid : new String[] { "4", "-1", "3-1", "a", "1-" } )
+        {
+            try
+            {
+                ShardAssignment.parse( 4, invalid );
+                fail( "Parsed " + invalid );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                //expected
+            }
+        }
+    }
+}